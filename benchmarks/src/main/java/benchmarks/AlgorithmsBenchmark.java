@@ -0,0 +1,120 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.Algorithms;
+import utils.DigitKernels;
+
+import java.util.concurrent.TimeUnit;
+
+// Every Algorithms method called directly, without the result cache in front of it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlgorithmsBenchmark {
+    private final Algorithms algorithms = new Algorithms();
+
+    // Fields rather than constants so the JIT cannot fold the calls away
+    public int number = 1234567;
+    public int small = 20;
+    public int large = 1000;
+    public int first = 1071;
+    public int second = 462;
+    public int prime = 2147483647;
+    public int palindrome = 1234321;
+
+    @Benchmark
+    public int sumOfNumbers() {
+        return algorithms.sumOfNumbers(number);
+    }
+
+    @Benchmark
+    public Number factorialLong() {
+        return algorithms.factorial(small);
+    }
+
+    @Benchmark
+    public Number factorialBig() {
+        return algorithms.factorial(large);
+    }
+
+    @Benchmark
+    public int gcd() {
+        return algorithms.gcd(first, second);
+    }
+
+    @Benchmark
+    public int reverse() {
+        return algorithms.reverse(number);
+    }
+
+    @Benchmark
+    public boolean primeChecker() {
+        return algorithms.primeChecker(prime);
+    }
+
+    @Benchmark
+    public long primeCount() {
+        return algorithms.primeCount(1, 1_000_000);
+    }
+
+    @Benchmark
+    public String primesIn() {
+        return algorithms.primesIn(1_000_000, 1_010_000);
+    }
+
+    @Benchmark
+    public boolean palindromeChecker() {
+        return algorithms.palindromeChecker(palindrome);
+    }
+
+    @Benchmark
+    public int largestDigit() {
+        return algorithms.largestDigit(number);
+    }
+
+    @Benchmark
+    public int sumOfDigits() {
+        return algorithms.sumOfDigits(number);
+    }
+
+    // The range form against a loop of single calls over the same million numbers
+    @Benchmark
+    public long sumOfDigitsRange() {
+        return DigitKernels.aggregate(DigitKernels.Operation.SUM_OF_DIGITS, 1, 1_000_000);
+    }
+
+    @Benchmark
+    public long sumOfDigitsLoop() {
+        long sum = 0;
+        for (int i = 1; i <= 1_000_000; i++) {
+            sum += algorithms.sumOfDigits(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public String multiplicationTable() {
+        return algorithms.multiplicationTable(small);
+    }
+
+    @Benchmark
+    public Number fibonacciLong() {
+        return algorithms.fibonacciPos(small * 4);
+    }
+
+    @Benchmark
+    public Number fibonacciBig() {
+        return algorithms.fibonacciPos(large);
+    }
+}
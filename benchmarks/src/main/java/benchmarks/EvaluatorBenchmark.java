@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ArithmeticEvaluator;
+import utils.Expression;
+import utils.ExpressionCompiler;
+import utils.VariableStorage;
+
+import java.util.concurrent.TimeUnit;
+
+// Evaluating expression strings the way the REPL does, including the compiled expression cache,
+// and compiled conditions the way loops evaluate them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+    @State(Scope.Thread)
+    public static class Arithmetic {
+        @Param({"42", "x", "x * 2 + y - 3", "(x + y) * (x - y) % 7"})
+        public String expression;
+
+        ArithmeticEvaluator evaluator;
+
+        @Setup
+        public void setUp() {
+            evaluator = new ArithmeticEvaluator(variables());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Comparison {
+        @Param({"x < y", "x * 2 >= y + 1"})
+        public String expression;
+
+        VariableStorage variableStorage;
+        Expression condition;
+
+        // Loop conditions are compiled once and then evaluated on every iteration
+        @Setup
+        public void setUp() {
+            variableStorage = variables();
+            condition = new ExpressionCompiler(variableStorage).compileCondition(expression);
+        }
+    }
+
+    @Benchmark
+    public Object evaluateArithmetic(Arithmetic state) {
+        return state.evaluator.evaluateArithmetic(state.expression);
+    }
+
+    @Benchmark
+    public boolean evaluateComparison(Comparison state) {
+        return state.condition.evaluateCondition(state.variableStorage);
+    }
+
+    static VariableStorage variables() {
+        VariableStorage variableStorage = new VariableStorage();
+        variableStorage.setVariable("x", 12);
+        variableStorage.setVariable("y", 30);
+        return variableStorage;
+    }
+}
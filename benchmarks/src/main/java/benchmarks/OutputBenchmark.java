@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.AsyncOutput;
+import utils.Output;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Printing a block of numbers and flushing, like a print loop followed by the next prompt
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark {
+    @Param({"1000", "100000"})
+    public int lines;
+
+    // buffered: Output on a stream, async: AsyncOutput on a channel, both writing to /dev/null
+    @Param({"buffered", "async"})
+    public String kind;
+
+    private Output output;
+
+    @Setup
+    public void setUp() throws IOException {
+        FileOutputStream devNull = new FileOutputStream("/dev/null");
+        output = kind.equals("async") ? new AsyncOutput(devNull.getChannel(), StandardCharsets.UTF_8) : new Output(devNull);
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.close();
+    }
+
+    @Benchmark
+    public void printNumbers() {
+        for (int i = 0; i < lines; i++) {
+            output.println(i);
+        }
+        output.flush();
+    }
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.VariableStorage;
+
+import java.util.concurrent.TimeUnit;
+
+// Reads and writes through the name based facade and through resolved slots
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VariableStorageBenchmark {
+    private VariableStorage variableStorage;
+    private int intSlot;
+    private int stringSlot;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        variableStorage = new VariableStorage();
+        for (int i = 0; i < 64; i++) {
+            variableStorage.setVariable("v" + i, i);
+        }
+        variableStorage.setVariable("count", 0);
+        variableStorage.setVariable("text", "hello");
+        intSlot = variableStorage.slotOf("count");
+        stringSlot = variableStorage.slotOf("text");
+    }
+
+    @Benchmark
+    public Object getVariable() {
+        return variableStorage.getVariable("count");
+    }
+
+    @Benchmark
+    public void setVariable() {
+        variableStorage.setVariable("count", counter++);
+    }
+
+    @Benchmark
+    public boolean hasVariable() {
+        return variableStorage.hasVariable("text");
+    }
+
+    @Benchmark
+    public int getIntSlot() {
+        return variableStorage.getInt(intSlot);
+    }
+
+    @Benchmark
+    public void setIntSlot() {
+        variableStorage.setInt(intSlot, counter++);
+    }
+
+    @Benchmark
+    public Object getStringSlot() {
+        return variableStorage.get(stringSlot);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.Output;
+import utils.Reader;
+import utils.VariableStorage;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// Counting while loops typed at the prompt, run on each execution engine
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WhileLoopBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int iterations;
+
+    // jit: tree executor with hot loops compiled, tree: tree executor only, vm: bytecode VM
+    @Param({"jit", "tree", "vm"})
+    public String engine;
+
+    private Reader reader;
+    private String loop;
+
+    @Setup
+    public void setUp() {
+        reader = new Reader(new VariableStorage(), new Output(OutputStream.nullOutputStream()));
+        reader.setJitEnabled(engine.equals("jit"));
+        reader.setUseVirtualMachine(engine.equals("vm"));
+        loop = "while(i < " + iterations + "){ s = s + i % 7; i = i + 1 }";
+    }
+
+    // Resetting the counters is two cached commands, negligible next to the loop
+    @Benchmark
+    public void countingLoop() {
+        reader.execute("var i = 0");
+        reader.execute("var s = 0");
+        reader.execute(loop);
+    }
+}
@@ -1,19 +1,225 @@
 package main;
 
+import utils.ConcurrentVariableStorage;
+import utils.InterpreterServer;
+import utils.Journal;
+import utils.JournaledVariableStorage;
 import utils.Reader;
+import utils.ResultCache;
 import utils.VariableStorage;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+
 
 public class Interpreter {
     public static void main(String[] args) {
-        // Create an instance of VariableStorage to store variables
-        VariableStorage variableStorage = new VariableStorage();
+        // Optional flags: --vm runs statements on the bytecode virtual machine,
+        // --no-jit keeps hot loops in the interpreter, -O0/-O1 select the optimization level,
+        // --trace echoes every command. Any other argument is a script to run instead of the REPL.
+        // --server serves sessions on --port=<n> or --socket=<path>, at most --max-sessions=<n>,
+        // --shared-scope lets all of them use one global set of variables.
+        // --profile reports the hottest statements when the script ends or on exit.
+        // --cache=lru|tinylfu|off and --cache-size=<n> configure the algorithm result cache.
+        // --journal=<file> keeps the variables of the local reader in a write-ahead journal.
+        // --max-steps=<n> and --timeout=<ms> stop commands that run too many loop iterations or too
+        // long; Ctrl-C cancels the running command in the REPL.
+        boolean virtualMachine = false;
+        boolean jit = true;
+        int optimizationLevel = 0;
+        boolean trace = false;
+        boolean profile = false;
+        boolean server = false;
+        boolean sharedScope = false;
+        int port = InterpreterServer.DEFAULT_PORT;
+        String socket = null;
+        int maxSessions = InterpreterServer.DEFAULT_MAX_SESSIONS;
+        String cachePolicy = "tinylfu";
+        int cacheSize = ResultCache.DEFAULT_CAPACITY;
+        String journalFile = null;
+        long maxSteps = 0;
+        long timeoutMillis = 0;
+        String script = null;
+
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                virtualMachine = true;
+            } else if (arg.equals("--no-jit")) {
+                jit = false;
+            } else if (arg.equals("-O0")) {
+                optimizationLevel = 0;
+            } else if (arg.equals("-O1")) {
+                optimizationLevel = 1;
+            } else if (arg.equals("--trace")) {
+                trace = true;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.equals("--server")) {
+                server = true;
+            } else if (arg.equals("--shared-scope")) {
+                sharedScope = true;
+            } else if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--socket=")) {
+                socket = arg.substring("--socket=".length());
+            } else if (arg.startsWith("--max-sessions=")) {
+                maxSessions = Integer.parseInt(arg.substring("--max-sessions=".length()));
+            } else if (arg.startsWith("--cache=")) {
+                cachePolicy = arg.substring("--cache=".length());
+            } else if (arg.startsWith("--cache-size=")) {
+                cacheSize = Integer.parseInt(arg.substring("--cache-size=".length()));
+            } else if (arg.startsWith("--journal=")) {
+                journalFile = arg.substring("--journal=".length());
+            } else if (arg.startsWith("--max-steps=")) {
+                maxSteps = Long.parseLong(arg.substring("--max-steps=".length()));
+            } else if (arg.startsWith("--timeout=")) {
+                timeoutMillis = Long.parseLong(arg.substring("--timeout=".length()));
+            } else {
+                script = arg;
+            }
+        }
+
+        // The same options apply to the local reader and to every server session
+        final boolean useVirtualMachine = virtualMachine;
+        final boolean useJit = jit;
+        final int level = optimizationLevel;
+        final boolean useTrace = trace;
+        final boolean useProfile = profile;
+        final long stepLimit = maxSteps;
+        final long timeLimit = timeoutMillis;
+        // One cache is shared by all sessions, the algorithms do not depend on session state
+        final ResultCache resultCache = cachePolicy.equals("off") ? null : ResultCache.create(cachePolicy, cacheSize);
+        Consumer<Reader> options = reader -> {
+            reader.setUseVirtualMachine(useVirtualMachine);
+            reader.setJitEnabled(useJit);
+            reader.setOptimizationLevel(level);
+            reader.setTrace(useTrace);
+            reader.setProfiling(useProfile);
+            reader.setResultCache(resultCache);
+            reader.setMaxSteps(stepLimit);
+            reader.setTimeoutMillis(timeLimit);
+        };
+
+        if (server) {
+            if (journalFile != null) {
+                System.err.println("Error: --journal cannot be combined with --server.");
+                System.exit(1);
+            }
+            serve(port, socket, maxSessions, sharedScope, options);
+            return;
+        }
+
+        // Create an instance of VariableStorage to store variables, journaled ones start from the journal
+        VariableStorage variableStorage;
+        Journal journal = null;
+        if (journalFile != null) {
+            JournaledVariableStorage journaledStorage = new JournaledVariableStorage();
+            try {
+                journal = Journal.open(Paths.get(journalFile), journaledStorage);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error: Cannot open journal " + journalFile + ": " + e.getMessage());
+                System.exit(1);
+            }
+            variableStorage = journaledStorage;
+        } else {
+            variableStorage = new VariableStorage();
+        }
 
         // Create an instance of Interpreter and pass the VariableStorage to it
         Reader reader = new Reader(variableStorage);
+        options.accept(reader);
+        reader.setJournal(journal);
+
+        try {
+            if (script != null) {
+                // Run the script in batch mode
+                try {
+                    reader.runScript(Paths.get(script));
+                } catch (IOException e) {
+                    System.err.println("Error: Cannot read script " + script + ": " + e.getMessage());
+                    System.exit(1);
+                }
+                return;
+            }
+
+            // Start the interpreter to read and process commands
+            handleInterrupt(reader);
+            reader.start();
+        } finally {
+            reader.close();
+            closeJournal(journal);
+        }
+    }
+
+    // Ctrl-C cancels the running command, at the prompt it still ends the interpreter. Signal
+    // handlers are not part of the standard API: the sun.misc one of the jdk.unsupported module
+    // is looked up reflectively, and where it is missing Ctrl-C simply exits.
+    private static void handleInterrupt(Reader reader) {
+        try {
+            Class<?> signalClass = Class.forName("sun.misc.Signal");
+            Class<?> handlerClass = Class.forName("sun.misc.SignalHandler");
+            InvocationHandler onInterrupt = (proxy, method, arguments) -> {
+                switch (method.getName()) {
+                    case "handle":
+                        if (!reader.cancel()) {
+                            System.exit(130);
+                        }
+                        return null;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == arguments[0];
+                    default:
+                        return "Ctrl-C handler";
+                }
+            };
+            Object handler = Proxy.newProxyInstance(handlerClass.getClassLoader(), new Class<?>[]{handlerClass}, onInterrupt);
+            Object signal = signalClass.getConstructor(String.class).newInstance("INT");
+            signalClass.getMethod("handle", signalClass, handlerClass).invoke(null, signal, handler);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // Keep the default behavior
+        }
+    }
+
+    // Waits for the last batch of the journal to reach the disk
+    private static void closeJournal(Journal journal) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error: Cannot write the journal: " + e.getMessage());
+        }
+    }
+
+    private static void serve(int port, String socket, int maxSessions, boolean sharedScope, Consumer<Reader> options) {
+        try {
+            InterpreterServer server = socket != null
+                    ? InterpreterServer.unix(Paths.get(socket), maxSessions, options)
+                    : InterpreterServer.tcp(port, maxSessions, options);
+            if (sharedScope) {
+                server.setSharedStorage(new ConcurrentVariableStorage());
+            }
 
-        // Start the interpreter to read and process commands
-        reader.start();
+            // Ctrl-C or SIGTERM stops accepting and lets the open sessions finish
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
 
+            System.out.println("MiniKotlin server listening on " + server.getAddress());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Error: Cannot start server: " + e.getMessage());
+            System.exit(1);
+        }
     }
 }
@@ -1,14 +1,94 @@
 package utils;
 
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 public class Algorithms {
+    // Largest arguments whose results still fit in a long
+    static final int MAX_LONG_FACTORIAL = 20;
+    static final int MAX_LONG_FIBONACCI = 92;
+
+    // From this n on the factorial product is split across the common fork/join pool
+    static final int PARALLEL_FACTORIAL_THRESHOLD = 20000;
+
+    // Ranges shorter than this are multiplied sequentially
+    private static final int FACTORIAL_LEAF_SIZE = 64;
 
     public int sumOfNumbers(int n) {
         return n * (n + 1) / 2;
     }
 
-    public int factorial(int n) {
-        if (n <= 1) return 1;
-        return n * factorial(n - 1);
+    // Exact n!, a Long while it fits and a BigInteger beyond that
+    public Number factorial(int n) {
+        if (n <= MAX_LONG_FACTORIAL) {
+            return factorialLong(n);
+        }
+        return factorialBig(n, n >= PARALLEL_FACTORIAL_THRESHOLD);
+    }
+
+    public long factorialLong(int n) {
+        if (n > MAX_LONG_FACTORIAL) {
+            throw new ArithmeticException(n + "! does not fit in a long.");
+        }
+        long result = 1;
+        for (int i = 2; i <= n; i++) {
+            result *= i;
+        }
+        return result;
+    }
+
+    // Binary splitting: multiplying balanced halves keeps the BigInteger operands similar in size
+    public BigInteger factorialBig(int n, boolean parallel) {
+        if (n <= 1) return BigInteger.ONE;
+        if (parallel) {
+            return ForkJoinPool.commonPool().invoke(new ProductTask(2, n));
+        }
+        return product(2, n);
+    }
+
+    // Product of all integers in [from, to]
+    private static BigInteger product(int from, int to) {
+        if (to - from < FACTORIAL_LEAF_SIZE) {
+            long partial = 1;
+            BigInteger result = BigInteger.ONE;
+            for (long i = from; i <= to; i++) {
+                // Collect factors in a long as long as the product cannot overflow
+                if (partial > Long.MAX_VALUE / i) {
+                    result = result.multiply(BigInteger.valueOf(partial));
+                    partial = 1;
+                }
+                partial *= i;
+            }
+            return result.multiply(BigInteger.valueOf(partial));
+        }
+        int middle = (from + to) >>> 1;
+        return product(from, middle).multiply(product(middle + 1, to));
+    }
+
+    // product(from, to) with the halves computed in parallel
+    private static final class ProductTask extends RecursiveTask<BigInteger> {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_SIZE = 4096;
+        private final int from;
+        private final int to;
+
+        ProductTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BigInteger compute() {
+            if (to - from < SEQUENTIAL_SIZE) {
+                return product(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            ProductTask left = new ProductTask(from, middle);
+            left.fork();
+            BigInteger right = new ProductTask(middle + 1, to).compute();
+            return left.join().multiply(right);
+        }
     }
 
     public int gcd(int a, int b) {
@@ -24,12 +104,25 @@ public class Algorithms {
         return reversed;
     }
 
-    public boolean primeChecker(int n) {
-        if (n <= 1) return false;
-        for (int i = 2; i * i <= n; i++) {
-            if (n % i == 0) return false;
+    // A bit lookup in the shared sieve for small n, Miller-Rabin beyond it
+    public boolean primeChecker(long n) {
+        return PrimeSieve.shared().isPrime(n);
+    }
+
+    // Number of primes in [a, b]
+    public long primeCount(long a, long b) {
+        return PrimeSieve.shared().count(a, b);
+    }
+
+    // Primes in [a, b], separated by commas
+    public String primesIn(long a, long b) {
+        long[] primes = PrimeSieve.shared().list(a, b);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < primes.length; i++) {
+            if (i > 0) result.append(", ");
+            result.append(primes[i]);
         }
-        return true;
+        return result.toString();
     }
 
     public boolean palindromeChecker(int n) {
@@ -62,15 +155,50 @@ public class Algorithms {
         return result.toString();
     }
 
-    public int fibonacciPos(int n) {
-        if (n <= 1) return n;
-        int a = 0, b = 1;
-        for (int i = 2; i <= n; i++) {
-            int temp = a + b;
-            a = b;
-            b = temp;
+    // Exact Fibonacci number at position n, a Long while it fits and a BigInteger beyond that
+    public Number fibonacciPos(int n) {
+        if (n <= 1) return (long) n;
+        if (n <= MAX_LONG_FIBONACCI) {
+            return fibonacciLong(n);
+        }
+        return fibonacciBig(n);
+    }
+
+    // Fast doubling: F(2k) = F(k) * (2F(k+1) - F(k)) and F(2k+1) = F(k)^2 + F(k+1)^2, O(log n) steps.
+    // F(n+1) may wrap on the last step for n = 92, but only F(n) is returned.
+    public long fibonacciLong(int n) {
+        if (n > MAX_LONG_FIBONACCI) {
+            throw new ArithmeticException("Fibonacci number " + n + " does not fit in a long.");
+        }
+        long a = 0, b = 1; // F(k), F(k+1)
+        for (int bit = Integer.highestOneBit(Math.max(n, 1)); bit != 0; bit >>>= 1) {
+            long c = a * (2 * b - a);
+            long d = a * a + b * b;
+            if ((n & bit) == 0) {
+                a = c;
+                b = d;
+            } else {
+                a = d;
+                b = c + d;
+            }
+        }
+        return a;
+    }
+
+    public BigInteger fibonacciBig(int n) {
+        BigInteger a = BigInteger.ZERO, b = BigInteger.ONE; // F(k), F(k+1)
+        for (int bit = Integer.highestOneBit(Math.max(n, 1)); bit != 0; bit >>>= 1) {
+            BigInteger c = a.multiply(b.shiftLeft(1).subtract(a));
+            BigInteger d = a.multiply(a).add(b.multiply(b));
+            if ((n & bit) == 0) {
+                a = c;
+                b = d;
+            } else {
+                a = d;
+                b = c.add(d);
+            }
         }
-        return b;
+        return a;
     }
 }
 
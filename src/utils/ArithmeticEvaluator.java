@@ -1,63 +1,53 @@
+
 package utils;
 
 public class ArithmeticEvaluator {
 
     private final VariableStorage variableStorage;
+    private final ExpressionCompiler expressionCompiler;
+    private Profiler profiler;
 
     // Constructor to initialize with VariableStorage
     public ArithmeticEvaluator(VariableStorage variableStorage) {
+        this(variableStorage, new ExpressionCompiler(variableStorage));
+    }
+
+    // Constructor sharing a compiler (and its cache) with other evaluators
+    public ArithmeticEvaluator(VariableStorage variableStorage, ExpressionCompiler expressionCompiler) {
         this.variableStorage = variableStorage;
+        this.expressionCompiler = expressionCompiler;
     }
 
-    // Evaluates a basic arithmetic expression (addition, subtraction, multiplication, division, modulo)
+    // Evaluates an arithmetic expression (+, -, *, /, % with precedence, parentheses and unary minus)
     public Object evaluateArithmetic(String expression) {
-        // List of supported operators
-        String[] operators = {"+", "-", "*", "/", "%"};
-
-        for (String operator : operators) {
-            // Escape the operator correctly for regular expressions
-            String escapedOperator = "\\" + operator;
-
-            // Split the expression using the operator, ensuring it's properly escaped
-            String[] parts = expression.split(escapedOperator);
-            if (parts.length == 2) {
-                Object leftOperand = getOperandValue(parts[0].trim());
-                Object rightOperand = getOperandValue(parts[1].trim());
-
-                // Perform the arithmetic operation based on the operator
-                int left = (int) leftOperand;
-                int right = (int) rightOperand;
-
-                switch (operator) {
-                    case "+":
-                        return left + right;
-                    case "-":
-                        return left - right;
-                    case "*":
-                        return left * right;
-                    case "/":
-                        if (right == 0) {
-                            throw new ArithmeticException("Cannot divide by zero.");
-                        }
-                        return left / right;
-                    case "%":
-                        return left % right;
-                }
-            }
+        Profiler profiler = this.profiler;
+        if (profiler == null) {
+            return compile(expression).evaluate(variableStorage);
+        }
+        // Compiling covers parsing or the cache lookup, the rest is evaluation
+        long start = System.nanoTime();
+        Expression compiled = compile(expression);
+        long compiledAt = System.nanoTime();
+        try {
+            return compiled.evaluate(variableStorage);
+        } finally {
+            profiler.recordParse(compiledAt - start);
+            profiler.recordEvaluation(System.nanoTime() - compiledAt);
         }
-        throw new IllegalArgumentException("Unsupported expression: " + expression);
     }
 
-    // Helper to get the value of a variable or number from an expression
-    private Object getOperandValue(String operand) {
-        if (variableStorage.hasVariable(operand)) {
-            return variableStorage.getVariable(operand); // Return the value of the variable
-        } else if (operand.matches("-?\\d+")) {
-            return Integer.parseInt(operand); // Parse as integer
-        } else {
-            throw new IllegalArgumentException("Invalid operand: " + operand);
+    // Splits the time of every evaluation into parsing and evaluating, null turns it off
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    // Compiles the expression once, the result can be evaluated again without parsing
+    public Expression compile(String expression) {
+        try {
+            return expressionCompiler.compile(expression);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported expression: " + expression);
         }
     }
 }
 
-
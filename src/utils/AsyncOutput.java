@@ -0,0 +1,275 @@
+package utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.locks.LockSupport;
+
+// Output written by a background thread. Printing only copies characters into a bounded ring
+// and hands them over in batches; the writer thread encodes whole batches into a direct buffer
+// and writes it to the channel, so a print loop runs at the speed of memory copies instead of
+// console writes. A batch is handed over every PUBLISH_CHARS, at least every PUBLISH_DELAY_MILLIS
+// while printing goes on, and at every line end when lineBuffered is set (for a terminal, where
+// a person waits for each line). When the writer falls behind and the ring is full, printing
+// waits for it (backpressure). flush() waits until everything printed so far has been written,
+// close() also stops the writer thread. One thread prints at a time, like with Output.
+public class AsyncOutput extends Output {
+    public static final int DEFAULT_RING_CHARS = 1 << 20;
+
+    // Characters printed before the writer is told about them
+    private static final int PUBLISH_CHARS = 1 << 16;
+    // Time after which the writer asks for the characters printed in the meantime
+    private static final long PUBLISH_DELAY_MILLIS = 50;
+    // Characters the writer takes out of the ring at once
+    private static final int BATCH_CHARS = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final char[] ring;
+    private final int mask;
+    private final char[] digits = new char[11];
+    private final boolean lineBuffered;
+    private final Thread writer;
+
+    // Position of the printing thread in the stream of characters, only it writes these
+    private long written;
+    private volatile long published;
+    // Positions of the writer thread: characters taken out of the ring, and the ones that are
+    // also encoded and written to the channel
+    private volatile long consumed;
+    private volatile long flushed;
+    private volatile boolean writerParked;
+    // Set by the writer once it has waited PUBLISH_DELAY_MILLIS, the next print publishes
+    private volatile boolean publishDue;
+    private volatile boolean closed;
+    private volatile Thread waiter;
+    private volatile IOException failure;
+
+    public AsyncOutput(WritableByteChannel channel, Charset charset) {
+        this(channel, charset, DEFAULT_RING_CHARS, false);
+    }
+
+    // ringChars is rounded up to a power of two
+    public AsyncOutput(WritableByteChannel channel, Charset charset, int ringChars, boolean lineBuffered) {
+        this.channel = channel;
+        this.lineBuffered = lineBuffered;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int capacity = Integer.highestOneBit(Math.max(ringChars, 2 * BATCH_CHARS) - 1) << 1;
+        this.ring = new char[capacity];
+        this.mask = capacity - 1;
+        this.writer = new Thread(this::writeBatches, "minikotlin-output");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void print(String text) {
+        int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, BATCH_CHARS);
+            reserve(count);
+            int index = (int) (written & mask);
+            int first = Math.min(count, ring.length - index);
+            text.getChars(offset, offset + first, ring, index);
+            text.getChars(offset + first, offset + count, ring, 0);
+            written += count;
+            offset += count;
+        }
+        if (publishDue || written - published >= PUBLISH_CHARS || lineBuffered && text.indexOf('\n') >= 0) {
+            publish();
+        }
+    }
+
+    @Override
+    public void println(Object value) {
+        print(String.valueOf(value));
+        print(LINE_SEPARATOR);
+    }
+
+    // Writes the digits straight into the ring, printing a number allocates nothing
+    @Override
+    public void println(int value) {
+        if (value == Integer.MIN_VALUE) {
+            println((Object) value);
+            return;
+        }
+        int start = digits.length;
+        int rest = Math.abs(value);
+        do {
+            digits[--start] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        int count = digits.length - start;
+        reserve(count);
+        for (int i = start; i < digits.length; i++) {
+            ring[(int) (written++ & mask)] = digits[i];
+        }
+        print(LINE_SEPARATOR);
+    }
+
+    // Waits until everything printed so far is written to the channel
+    @Override
+    public void flush() {
+        checkOpen();
+        if (flushed == written) {
+            return;
+        }
+        publish();
+        long target = written;
+        waiter = Thread.currentThread();
+        try {
+            while (flushed < target) {
+                checkFailure();
+                LockSupport.park(this);
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    // Waits for the writer until count more characters fit into the ring
+    private void reserve(int count) {
+        if (written + count - consumed <= ring.length) {
+            return;
+        }
+        checkOpen();
+        publish();
+        waiter = Thread.currentThread();
+        try {
+            while (written + count - consumed > ring.length) {
+                checkFailure();
+                LockSupport.park(this);
+            }
+        } finally {
+            waiter = null;
+        }
+    }
+
+    // Writes out what was printed and stops the writer thread, the channel stays open. Printing
+    // afterwards fails.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            LockSupport.unpark(writer);
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void publish() {
+        published = written;
+        publishDue = false;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Output is closed.");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    private void writeBatches() {
+        // A high surrogate at the end of a batch stays in chars until its low half arrives
+        CharBuffer chars = CharBuffer.allocate(BATCH_CHARS);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(BATCH_CHARS * 4);
+        long position = 0;
+        try {
+            while (!closed) {
+                long end = published;
+                if (end == position) {
+                    // Waits for a batch, and once PUBLISH_DELAY_MILLIS have passed without one
+                    // asks the printing thread for what it has printed since. Parks without a
+                    // timeout after that, an idle output does not wake up.
+                    writerParked = true;
+                    if (published == position && !closed) {
+                        LockSupport.parkNanos(this, PUBLISH_DELAY_MILLIS * 1_000_000);
+                        if (published == position && !closed) {
+                            publishDue = true;
+                            if (published == position && !closed) {
+                                LockSupport.park(this);
+                            }
+                        }
+                    }
+                    writerParked = false;
+                    continue;
+                }
+
+                int count = (int) Math.min(end - position, chars.remaining());
+                int index = (int) (position & mask);
+                int first = Math.min(count, ring.length - index);
+                chars.put(ring, index, first);
+                chars.put(ring, 0, count - first);
+                position += count;
+                consumed = position;
+                wakeWaiter();
+
+                chars.flip();
+                while (encoder.encode(chars, bytes, false).isOverflow()) {
+                    writeFully(bytes);
+                }
+                chars.compact();
+                // Everything published has been taken, write the batch out
+                if (published == position) {
+                    writeFully(bytes);
+                    flushed = position;
+                    wakeWaiter();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            wakeWaiter();
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private void wakeWaiter() {
+        Thread waiter = this.waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static utils.VirtualMachine.*;
+
+// Lowers statement trees to the flat, register based instructions run by the VirtualMachine.
+// While loops are rotated: the condition is tested once on entry and again at the bottom by a
+// LOOP_* instruction that jumps back, so an iteration costs no separate jump. A loop that only
+// uses ints (the shapes the JitCompiler accepts, plus calls and string prints) keeps its
+// variables and literals in registers: ENTER loads them after checking every variable still
+// holds an int, results are computed straight into the variable's register and LEAVE writes
+// them back. When the check fails the uncached copy of the loop that follows is run instead.
+public class BytecodeCompiler {
+    private int[] code;
+    private int size;
+    private List<Object> constants;
+    private List<Statement> fallbacks;
+    private List<String> contexts;
+    private List<Integer> regions;
+    private int registerCount;
+    // Registers of the variables and int literals of the cached loop being compiled, null outside one
+    private Map<Integer, Integer> variableRegisters;
+    private Map<Integer, Integer> literalRegisters;
+
+    public Program compile(Statement statement) {
+        code = new int[64];
+        size = 0;
+        constants = new ArrayList<>();
+        fallbacks = new ArrayList<>();
+        contexts = new ArrayList<>();
+        regions = new ArrayList<>();
+        registerCount = 0;
+        variableRegisters = null;
+        literalRegisters = null;
+
+        statement(statement, 0);
+
+        return new Program(Arrays.copyOf(code, size), constants.toArray(), fallbacks.toArray(new Statement[0]),
+                contexts.toArray(new String[0]), regions.stream().mapToInt(Integer::intValue).toArray(), registerCount);
+    }
+
+    // Registers from temp up are free for temporaries
+    private void statement(Statement statement, int temp) {
+        if (!resolved(statement)) {
+            // Unknown names are looked up when evaluated, the tree executor raises the same error
+            fallbacks.add(statement);
+            emit(EXECUTE, fallbacks.size() - 1, 0, 0, null);
+        } else if (statement instanceof Statement.VarDeclaration) {
+            Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+            assignment(declaration.slot, declaration.value, temp);
+        } else if (statement instanceof Statement.Assignment) {
+            Statement.Assignment assignment = (Statement.Assignment) statement;
+            assignment(assignment.slot, assignment.value, temp);
+        } else if (statement instanceof Statement.Print) {
+            print(((Statement.Print) statement).value, temp);
+        } else if (statement instanceof Statement.If) {
+            ifStatement((Statement.If) statement, temp);
+        } else if (statement instanceof Statement.While) {
+            Statement.While loop = (Statement.While) statement;
+            int jumpOverUncached = variableRegisters == null ? cachedLoop(loop) : -1;
+            whileLoop(loop, temp);
+            if (jumpOverUncached >= 0) {
+                patch(jumpOverUncached, size);
+            }
+        } else if (statement instanceof Statement.Block) {
+            for (Statement child : ((Statement.Block) statement).statements) {
+                statement(child, temp);
+            }
+        } else {
+            // Anything the VM does not model is run by the tree executor
+            fallbacks.add(statement);
+            emit(EXECUTE, fallbacks.size() - 1, 0, 0, null);
+        }
+    }
+
+    // Same cases as Executor.assign: ints through a register, other values as objects. In a cached
+    // loop every variable holds an int, so a plain variable is an int as well.
+    private void assignment(int slot, Expression value, int temp) {
+        if (variableRegisters != null) {
+            valueInto(value, variableRegisters.get(slot), temp, value.getSource());
+        } else if (value.isIntValued()) {
+            valueInto(value, temp, temp + 1, value.getSource());
+            emit(STORE, slot, temp, 0, value.getSource());
+        } else if (value instanceof Expression.Variable) {
+            emit(COPY, slot, ((Expression.Variable) value).slot, 0, value.getSource());
+        } else {
+            emit(STORE_CONSTANT, slot, constant(value), 0, value.getSource());
+        }
+    }
+
+    private void print(Expression value, int temp) {
+        if (value.isIntValued() || variableRegisters != null && value instanceof Expression.Variable) {
+            emit(PRINT, value(value, temp, value.getSource()), 0, 0, value.getSource());
+        } else if (value instanceof Expression.Variable) {
+            emit(PRINT_VARIABLE, ((Expression.Variable) value).slot, 0, 0, value.getSource());
+        } else {
+            emit(PRINT_CONSTANT, constant(value), 0, 0, value.getSource());
+        }
+    }
+
+    private void ifStatement(Statement.If statement, int temp) {
+        int jumpToElse = branch(statement.condition, true, temp);
+        statement(statement.thenBranch, temp);
+        if (statement.elseBranch == null) {
+            patch(jumpToElse, size);
+            return;
+        }
+        int jumpToEnd = emit(JUMP, 0, 0, 0, null);
+        patch(jumpToElse, size);
+        statement(statement.elseBranch, temp);
+        patch(jumpToEnd, size);
+    }
+
+    private void whileLoop(Statement.While statement, int temp) {
+        int exit = branch(statement.condition, true, temp);
+        int body = size;
+        statement(statement.body, temp);
+        patch(branch(statement.condition, false, temp), body);
+        patch(exit, size);
+    }
+
+    // Emits the register copy of an outermost loop when it qualifies and returns the position of
+    // its jump over the uncached copy that follows, -1 when the loop does not qualify
+    private int cachedLoop(Statement.While loop) {
+        Map<Integer, Integer> variables = new LinkedHashMap<>();
+        Map<Integer, Integer> literals = new LinkedHashMap<>();
+        if (!collect(loop, variables, literals)) {
+            return -1;
+        }
+        int[] slots = variables.keySet().stream().mapToInt(Integer::intValue).toArray();
+        int first = 0;
+        for (Map.Entry<Integer, Integer> entry : variables.entrySet()) {
+            entry.setValue(first++);
+        }
+        for (Map.Entry<Integer, Integer> entry : literals.entrySet()) {
+            entry.setValue(first++);
+        }
+        registerCount = Math.max(registerCount, first);
+        constants.add(slots);
+        int slotsConstant = constants.size() - 1;
+
+        int enter = emit(ENTER, slotsConstant, 0, 0, null);
+        for (Map.Entry<Integer, Integer> entry : literals.entrySet()) {
+            emit(CONSTANT, entry.getValue(), entry.getKey(), 0, null);
+        }
+        variableRegisters = variables;
+        literalRegisters = literals;
+        int start = size;
+        whileLoop(loop, first);
+        int end = size;
+        variableRegisters = null;
+        literalRegisters = null;
+        emit(LEAVE, slotsConstant, 0, 0, null);
+        int jumpToEnd = emit(JUMP, 0, 0, 0, null);
+
+        // The VM writes the registers back when something fails between start and end
+        regions.add(start);
+        regions.add(end);
+        regions.add(slotsConstant);
+        code[enter + 3] = size;
+        return jumpToEnd;
+    }
+
+    // False when the expression of a simple statement or the condition of an if or while reads a
+    // name that had no slot (see Expression.UnresolvedVariable)
+    private static boolean resolved(Statement statement) {
+        if (statement instanceof Statement.VarDeclaration) {
+            return resolved(((Statement.VarDeclaration) statement).value);
+        }
+        if (statement instanceof Statement.Assignment) {
+            return resolved(((Statement.Assignment) statement).value);
+        }
+        if (statement instanceof Statement.Print) {
+            return resolved(((Statement.Print) statement).value);
+        }
+        if (statement instanceof Statement.If) {
+            return resolved(((Statement.If) statement).condition);
+        }
+        if (statement instanceof Statement.While) {
+            return resolved(((Statement.While) statement).condition);
+        }
+        return true;
+    }
+
+    private static boolean resolved(Expression expression) {
+        if (expression instanceof Expression.UnresolvedVariable) {
+            return false;
+        }
+        if (expression instanceof Expression.Negate) {
+            return resolved(((Expression.Negate) expression).operand);
+        }
+        if (expression instanceof Expression.Invariant) {
+            return resolved(((Expression.Invariant) expression).expression);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            return resolved(binary.left) && resolved(binary.right);
+        }
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            return resolved(comparison.left) && resolved(comparison.right);
+        }
+        if (expression instanceof Expression.Call) {
+            for (Expression argument : ((Expression.Call) expression).arguments) {
+                if (!resolved(argument)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Checks a loop only uses int assignments, ifs, nested whiles, calls and prints of ints or
+    // string literals, and collects its variables and int literals
+    private boolean collect(Statement statement, Map<Integer, Integer> variables, Map<Integer, Integer> literals) {
+        if (statement instanceof Statement.Assignment) {
+            Statement.Assignment assignment = (Statement.Assignment) statement;
+            variables.putIfAbsent(assignment.slot, 0);
+            return collect(assignment.value, variables, literals);
+        }
+        if (statement instanceof Statement.VarDeclaration) {
+            Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+            variables.putIfAbsent(declaration.slot, 0);
+            return collect(declaration.value, variables, literals);
+        }
+        if (statement instanceof Statement.Print) {
+            Expression value = ((Statement.Print) statement).value;
+            return value instanceof Expression.StringLiteral || collect(value, variables, literals);
+        }
+        if (statement instanceof Statement.If) {
+            Statement.If ifStatement = (Statement.If) statement;
+            return collect(ifStatement.condition, variables, literals)
+                    && collect(ifStatement.thenBranch, variables, literals)
+                    && (ifStatement.elseBranch == null || collect(ifStatement.elseBranch, variables, literals));
+        }
+        if (statement instanceof Statement.While) {
+            Statement.While loop = (Statement.While) statement;
+            return collect(loop.condition, variables, literals) && collect(loop.body, variables, literals);
+        }
+        if (statement instanceof Statement.Block) {
+            for (Statement child : ((Statement.Block) statement).statements) {
+                if (!collect(child, variables, literals)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean collect(Expression expression, Map<Integer, Integer> variables, Map<Integer, Integer> literals) {
+        if (expression instanceof Expression.IntLiteral) {
+            literals.putIfAbsent(((Expression.IntLiteral) expression).value, 0);
+            return true;
+        }
+        if (expression instanceof Expression.Variable) {
+            variables.putIfAbsent(((Expression.Variable) expression).slot, 0);
+            return true;
+        }
+        if (expression instanceof Expression.Negate) {
+            return collect(((Expression.Negate) expression).operand, variables, literals);
+        }
+        if (expression instanceof Expression.Invariant) {
+            return collect(((Expression.Invariant) expression).expression, variables, literals);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            return collect(binary.left, variables, literals) && collect(binary.right, variables, literals);
+        }
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            return collect(comparison.left, variables, literals) && collect(comparison.right, variables, literals);
+        }
+        if (expression instanceof Expression.Call) {
+            for (Expression argument : ((Expression.Call) expression).arguments) {
+                if (!collect(argument, variables, literals)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Emits a compare-and-branch, target patched later. The loop entry and ifs jump when the
+    // condition does not hold, the bottom of a loop jumps back with LOOP_* when it does.
+    private int branch(Expression condition, boolean whenFalse, int temp) {
+        if (!(condition instanceof Expression.Comparison)) {
+            throw new IllegalArgumentException("Invalid comparison expression: " + condition.getSource());
+        }
+        Expression.Comparison comparison = (Expression.Comparison) condition;
+        int left = value(comparison.left, temp, null);
+        int right = value(comparison.right, temp + 1, null);
+
+        int opcode;
+        switch (comparison.operator) {
+            case EQUAL:
+                opcode = whenFalse ? IF_NOT_EQUAL : LOOP_EQUAL;
+                break;
+            case NOT_EQUAL:
+                opcode = whenFalse ? IF_EQUAL : LOOP_NOT_EQUAL;
+                break;
+            case LESS:
+                opcode = whenFalse ? IF_GREATER_EQUAL : LOOP_LESS;
+                break;
+            case LESS_EQUAL:
+                opcode = whenFalse ? IF_GREATER : LOOP_LESS_EQUAL;
+                break;
+            case GREATER:
+                opcode = whenFalse ? IF_LESS_EQUAL : LOOP_GREATER;
+                break;
+            default:
+                opcode = whenFalse ? IF_LESS : LOOP_GREATER_EQUAL;
+        }
+        return emit(opcode, left, right, 0, null);
+    }
+
+    // Returns the register holding an int expression: the register of a cached variable or
+    // literal, or temp after computing the expression into it
+    private int value(Expression expression, int temp, String context) {
+        if (variableRegisters != null) {
+            if (expression instanceof Expression.Variable) {
+                return variableRegisters.get(((Expression.Variable) expression).slot);
+            }
+            if (expression instanceof Expression.IntLiteral) {
+                return literalRegisters.get(((Expression.IntLiteral) expression).value);
+            }
+        }
+        if (expression instanceof Expression.Invariant) {
+            return value(((Expression.Invariant) expression).expression, temp, context);
+        }
+        valueInto(expression, temp, temp + 1, context);
+        return temp;
+    }
+
+    // Computes an int expression into register target, using the registers from temp up for its
+    // operands. Only the last instruction writes target, so target may be one of the operands.
+    private void valueInto(Expression expression, int target, int temp, String context) {
+        registerCount = Math.max(registerCount, Math.max(target, temp) + 1);
+
+        if (expression instanceof Expression.IntLiteral) {
+            emit(CONSTANT, target, ((Expression.IntLiteral) expression).value, 0, context);
+        } else if (expression instanceof Expression.Variable) {
+            if (variableRegisters != null) {
+                emit(MOVE, target, variableRegisters.get(((Expression.Variable) expression).slot), 0, context);
+            } else {
+                emit(LOAD, target, ((Expression.Variable) expression).slot, 0, context);
+            }
+        } else if (expression instanceof Expression.Negate) {
+            emit(NEGATE, target, value(((Expression.Negate) expression).operand, temp, context), 0, context);
+        } else if (expression instanceof Expression.Invariant) {
+            valueInto(((Expression.Invariant) expression).expression, target, temp, context);
+        } else if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            int left = value(binary.left, temp, context);
+            int right = value(binary.right, temp + 1, context);
+            emit(arithmeticOpcode(binary.operator), target, left, right, context);
+        } else if (expression instanceof Expression.Call) {
+            // Arguments go into the registers from temp up, the function itself into the constant pool
+            Expression.Call call = (Expression.Call) expression;
+            for (int i = 0; i < call.arguments.length; i++) {
+                valueInto(call.arguments[i], temp + i, temp + i + 1, context);
+            }
+            constants.add(call.function);
+            emit(CALL, temp, constants.size() - 1, call.arguments.length, context);
+            if (target != temp) {
+                emit(MOVE, target, temp, 0, context);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid operand: " + expression.getSource());
+        }
+    }
+
+    private int arithmeticOpcode(char operator) {
+        switch (operator) {
+            case '+':
+                return ADD;
+            case '-':
+                return SUBTRACT;
+            case '*':
+                return MULTIPLY;
+            case '/':
+                return DIVIDE;
+            default:
+                return REMAINDER;
+        }
+    }
+
+    // Adds a string literal to the constant pool
+    private int constant(Expression value) {
+        if (!(value instanceof Expression.StringLiteral)) {
+            throw new IllegalArgumentException("Invalid expression: " + value.getSource());
+        }
+        constants.add(((Expression.StringLiteral) value).value);
+        return constants.size() - 1;
+    }
+
+    // Appends one instruction and returns its position
+    private int emit(int opcode, int a, int b, int c, String context) {
+        if (size + Program.INSTRUCTION_SIZE > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        int position = size;
+        code[size++] = opcode;
+        code[size++] = a;
+        code[size++] = b;
+        code[size++] = c;
+        contexts.add(context);
+        return position;
+    }
+
+    // Points the jump at position to target; plain jumps keep it in operand a, branches in c
+    private void patch(int position, int target) {
+        code[position + (code[position] == JUMP ? 1 : 3)] = target;
+    }
+}
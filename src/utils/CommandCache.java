@@ -0,0 +1,74 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Remembers the parsed and optimized statement of recently run top-level commands, keyed by
+// their source text, and evicts the least recently used one when full. Each entry records the shape version
+// of the VariableStorage it was parsed against and is dropped once the shape has changed.
+// With --vm the entry also keeps the Program the statement was lowered to.
+public class CommandCache {
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private static final class Entry {
+        final Statement statement;
+        final long shapeVersion;
+        Program program;
+
+        Entry(Statement statement, long shapeVersion) {
+            this.statement = statement;
+            this.shapeVersion = shapeVersion;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    public CommandCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CommandCache(int capacity) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Returns the statement parsed from source, or null when it is unknown or stale
+    public Statement get(String source, long shapeVersion) {
+        Entry entry = entries.get(source);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.shapeVersion != shapeVersion) {
+            entries.remove(source);
+            return null;
+        }
+        return entry.statement;
+    }
+
+    public void put(String source, Statement statement, long shapeVersion) {
+        entries.put(source, new Entry(statement, shapeVersion));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // The program lowered from the cached statement of source, null when it was not lowered yet
+    public Program getProgram(String source, Statement statement) {
+        Entry entry = entries.get(source);
+        return entry != null && entry.statement == statement ? entry.program : null;
+    }
+
+    // Keeps the program next to the statement it was lowered from, nothing happens when source
+    // is no longer cached with that statement
+    public void putProgram(String source, Statement statement, Program program) {
+        Entry entry = entries.get(source);
+        if (entry != null && entry.statement == statement) {
+            entry.program = program;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight recorder event for a top-level command, only commands slower than the threshold are recorded
+@Name("minikotlin.Command")
+@Label("MiniKotlin Command")
+@Category("MiniKotlin")
+@Description("A top-level command that took longer than the threshold")
+@Threshold("20 ms")
+@StackTrace(false)
+class CommandEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Type")
+    String type;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,291 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A VariableStorage that many sessions and threads can use at the same time, for the shared
+// global scope of the server. Every slot is a cell holding an immutable value (Integer or
+// String) in a volatile field, so reads never lock. Writes take one of a fixed set of striped
+// locks, which also makes a whole assignment such as x = x + 1 atomic (see atomically), and
+// listVariables holds all stripes at once to print a consistent snapshot.
+public class ConcurrentVariableStorage extends VariableStorage {
+    private static final int STRIPES = 64;
+
+    private static final class Cell {
+        final String name;
+        volatile Object value; // null while undefined
+
+        Cell(String name) {
+            this.name = name;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Integer> slots = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Grown under growLock, cells are shared between the old and new array so no write is lost
+    private volatile Cell[] cells = new Cell[16];
+    private int slotCount;
+    private final Object growLock = new Object();
+    private final AtomicLong shapeVersion = new AtomicLong();
+    private final AtomicInteger definedCount = new AtomicInteger();
+
+    public ConcurrentVariableStorage() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    // Runs a read-modify-write of one slot while holding its stripe, other writers of the slot wait
+    @Override
+    public void atomically(int slot, Runnable update) {
+        ReentrantLock lock = stripeOf(slot);
+        lock.lock();
+        try {
+            update.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object getVariable(String name) {
+        Integer slot = slots.get(name);
+        Object value = slot == null ? null : cells[slot].value;
+        if (value == null) {
+            throw new IllegalArgumentException("Variable '" + name + "' does not exist.");
+        }
+        return value;
+    }
+
+    @Override
+    public int findSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    @Override
+    public boolean hasVariable(String name) {
+        Integer slot = slots.get(name);
+        return slot != null && cells[slot].value != null;
+    }
+
+    // Prints a snapshot taken while no write can happen
+    @Override
+    public void listVariables(Output output) {
+        String[] names;
+        Object[] values;
+        lockAll();
+        try {
+            Cell[] current = cells;
+            int count = slotCount();
+            names = new String[count];
+            values = new Object[count];
+            for (int slot = 0; slot < count; slot++) {
+                names[slot] = current[slot].name;
+                values[slot] = current[slot].value;
+            }
+        } finally {
+            unlockAll();
+        }
+
+        output.println("Current Variables:");
+        boolean empty = true;
+        for (int slot = 0; slot < names.length; slot++) {
+            if (values[slot] != null) {
+                output.println(names[slot] + " = " + values[slot]);
+                empty = false;
+            }
+        }
+        if (empty) {
+            output.println("No variables defined.");
+        }
+    }
+
+    // A plain storage holding a consistent snapshot, slots keep their numbers
+    @Override
+    public VariableStorage localCopy() {
+        VariableStorage copy = new VariableStorage();
+        lockAll();
+        try {
+            Cell[] current = cells;
+            int count = slotCount();
+            for (int slot = 0; slot < count; slot++) {
+                copy.slotOf(current[slot].name);
+                Object value = current[slot].value;
+                if (value != null) {
+                    copy.set(slot, value);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        return copy;
+    }
+
+    @Override
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (growLock) {
+            slot = slots.get(name);
+            if (slot != null) {
+                return slot;
+            }
+            Cell[] current = cells;
+            if (slotCount == current.length) {
+                current = Arrays.copyOf(current, slotCount * 2);
+            }
+            current[slotCount] = new Cell(name);
+            cells = current;
+            // Published only after the cell exists, so any thread that finds the slot finds its cell
+            slots.put(name, slotCount);
+            return slotCount++;
+        }
+    }
+
+    @Override
+    public long getShapeVersion() {
+        return shapeVersion.get();
+    }
+
+    @Override
+    public int getVariableCount() {
+        return definedCount.get();
+    }
+
+    @Override
+    public long estimateFootprintBytes() {
+        Cell[] current = cells;
+        int count = slotCount();
+        long bytes = 16 + (long) current.length * 4 + STRIPES * 48;
+        for (int slot = 0; slot < count; slot++) {
+            Cell cell = current[slot];
+            // The cell, its map entry with the boxed slot number, and the name string
+            bytes += 24 + 48 + 40 + cell.name.length();
+            Object value = cell.value;
+            bytes += value instanceof String ? 40 + ((String) value).length() : 16;
+        }
+        return bytes;
+    }
+
+    // Cells are added one by one, there is nothing to reserve
+    @Override
+    public void ensureCapacity(int capacity) {
+    }
+
+    @Override
+    public int getSlotCount() {
+        return slotCount();
+    }
+
+    @Override
+    public String nameOf(int slot) {
+        return cells[slot].name;
+    }
+
+    @Override
+    public byte typeOf(int slot) {
+        Object value = cells[slot].value;
+        if (value == null) {
+            return UNDEFINED;
+        }
+        return value instanceof Integer ? INT : STRING;
+    }
+
+    @Override
+    public boolean isDefined(int slot) {
+        return cells[slot].value != null;
+    }
+
+    @Override
+    public int getInt(int slot) {
+        Cell cell = cells[slot];
+        Object value = cell.value;
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid operand: " + cell.name);
+        }
+        throw new IllegalArgumentException("Operand '" + cell.name + "' is not an integer.");
+    }
+
+    @Override
+    public void setInt(int slot, int value) {
+        write(slot, value);
+    }
+
+    @Override
+    public Object get(int slot) {
+        Cell cell = cells[slot];
+        Object value = cell.value;
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid operand: " + cell.name);
+        }
+        return value;
+    }
+
+    @Override
+    public void set(int slot, Object value) {
+        write(slot, value);
+    }
+
+    @Override
+    public void copy(int fromSlot, int toSlot) {
+        write(toSlot, get(fromSlot));
+    }
+
+    private void write(int slot, Object value) {
+        Cell cell = cells[slot];
+        ReentrantLock lock = stripeOf(slot);
+        lock.lock();
+        try {
+            Object previous = cell.value;
+            if (previous == null || (previous instanceof Integer) != (value instanceof Integer)) {
+                // First declaration or a type change, the name is validated on the first one
+                if (previous == null) {
+                    if (!isValidName(cell.name)) {
+                        throw new IllegalArgumentException("Invalid variable name: '" + cell.name + "'");
+                    }
+                    definedCount.incrementAndGet();
+                }
+                shapeVersion.incrementAndGet();
+            }
+            cell.value = value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int slotCount() {
+        synchronized (growLock) {
+            return slotCount;
+        }
+    }
+
+    private ReentrantLock stripeOf(int slot) {
+        return stripes[slot & (STRIPES - 1)];
+    }
+
+    private void lockAll() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package utils;
+
+import java.util.stream.IntStream;
+
+// Range and array forms of the digit algorithms, e.g. sumOfDigits(1..10000000) or
+// largestDigit([90, 7, 123]). Values are processed in int[] blocks by plain array loops without
+// early exits, which the JIT can unroll and vectorize. Digit sums and largest digits look up
+// groups of four digits in tables; reverse goes one digit position at a time across the whole
+// block, as many steps as the largest value of the block has digits. Results match the scalar
+// methods of Algorithms for every int, negative ones included.
+public class DigitKernels {
+    // Values per block, three blocks of ints stay well inside the L1 cache
+    static final int BLOCK = 4096;
+
+    // Ranges shorter than this are summed on the calling thread
+    private static final long PARALLEL_THRESHOLD = 1 << 18;
+
+    // Digit sums and largest digits of 0..9999, an int has at most three groups of four digits
+    private static final int GROUP = 10000;
+    private static final int[] GROUP_DIGIT_SUMS = new int[GROUP];
+    private static final int[] GROUP_LARGEST_DIGITS = new int[GROUP];
+
+    static {
+        for (int n = 1; n < GROUP; n++) {
+            GROUP_DIGIT_SUMS[n] = GROUP_DIGIT_SUMS[n / 10] + n % 10;
+            GROUP_LARGEST_DIGITS[n] = Math.max(GROUP_LARGEST_DIGITS[n / 10], n % 10);
+        }
+    }
+
+    public enum Operation {
+        SUM_OF_DIGITS, LARGEST_DIGIT, REVERSE, PALINDROME_CHECKER;
+
+        // The operation of an algorithm name, null for the other algorithms
+        static Operation named(String method) {
+            switch (method) {
+                case "sumOfDigits":
+                    return SUM_OF_DIGITS;
+                case "largestDigit":
+                    return LARGEST_DIGIT;
+                case "reverse":
+                    return REVERSE;
+                case "palindromeChecker":
+                    return PALINDROME_CHECKER;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    // Sum of the results over [from, to], for palindromeChecker the number of palindromes.
+    // Large ranges are split over the common fork/join pool, every part reuses its own blocks.
+    public static long aggregate(Operation operation, int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        long count = (long) to - from + 1;
+        if (count < PARALLEL_THRESHOLD) {
+            return aggregateSequential(operation, from, to);
+        }
+        int parts = (int) Math.min(count / BLOCK + 1, 4L * Runtime.getRuntime().availableProcessors());
+        long partSize = (count + parts - 1) / parts;
+        return IntStream.range(0, parts).parallel().mapToLong(part -> {
+            long start = from + part * partSize;
+            long end = Math.min(to, start + partSize - 1);
+            return start > end ? 0 : aggregateSequential(operation, start, end);
+        }).sum();
+    }
+
+    private static long aggregateSequential(Operation operation, long from, long to) {
+        int[] values = new int[BLOCK];
+        int[] work = new int[BLOCK];
+        int[] results = new int[BLOCK];
+        long total = 0;
+        for (long start = from; start <= to; start += BLOCK) {
+            int length = (int) Math.min(BLOCK, to - start + 1);
+            for (int i = 0; i < length; i++) {
+                values[i] = (int) (start + i);
+            }
+            // Consecutive values, so the largest magnitude is at one of the ends
+            long magnitude = Math.max(Math.abs(start), Math.abs(start + length - 1));
+            apply(operation, values, work, results, length, digitCount(magnitude));
+            total += sum(results, length);
+        }
+        return total;
+    }
+
+    // The result for every value, separated by commas like primesIn
+    public static String list(Operation operation, int[] values) {
+        int[] work = new int[BLOCK];
+        int[] results = new int[BLOCK];
+        int[] block = new int[BLOCK];
+        StringBuilder result = new StringBuilder();
+        for (int start = 0; start < values.length; start += BLOCK) {
+            int length = Math.min(BLOCK, values.length - start);
+            System.arraycopy(values, start, block, 0, length);
+            long magnitude = 0;
+            for (int i = 0; i < length; i++) {
+                magnitude = Math.max(magnitude, Math.abs((long) block[i]));
+            }
+            apply(operation, block, work, results, length, digitCount(magnitude));
+            for (int i = 0; i < length; i++) {
+                if (start + i > 0) result.append(", ");
+                if (operation == Operation.PALINDROME_CHECKER) {
+                    result.append(results[i] != 0);
+                } else {
+                    result.append(results[i]);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    // Computes results[0..length) from values[0..length), work is scratch space of the same size
+    static void apply(Operation operation, int[] values, int[] work, int[] results, int length, int digits) {
+        System.arraycopy(values, 0, work, 0, length);
+        for (int i = 0; i < length; i++) {
+            results[i] = 0;
+        }
+        switch (operation) {
+            case SUM_OF_DIGITS:
+                // Three groups of four digits, the sign carries over to every digit like in n % 10
+                for (int i = 0; i < length; i++) {
+                    int n = values[i];
+                    int high = n / GROUP;
+                    int top = high / GROUP;
+                    int sum = GROUP_DIGIT_SUMS[Math.abs(n - high * GROUP)]
+                            + GROUP_DIGIT_SUMS[Math.abs(high - top * GROUP)]
+                            + GROUP_DIGIT_SUMS[Math.abs(top)];
+                    results[i] = n < 0 ? -sum : sum;
+                }
+                break;
+            case LARGEST_DIGIT:
+                // Negative numbers only have negative remainders, so their largest digit stays 0
+                for (int i = 0; i < length; i++) {
+                    int n = Math.max(values[i], 0);
+                    int high = n / GROUP;
+                    int top = high / GROUP;
+                    results[i] = Math.max(GROUP_LARGEST_DIGITS[n - high * GROUP],
+                            Math.max(GROUP_LARGEST_DIGITS[high - top * GROUP], GROUP_LARGEST_DIGITS[top]));
+                }
+                break;
+            default:
+                // Values with fewer digits have reached 0 and keep their reversed value
+                for (int d = 0; d < digits; d++) {
+                    for (int i = 0; i < length; i++) {
+                        int n = work[i];
+                        int reversed = results[i];
+                        results[i] = n != 0 ? reversed * 10 + n % 10 : reversed;
+                        work[i] = n / 10;
+                    }
+                }
+                if (operation == Operation.PALINDROME_CHECKER) {
+                    for (int i = 0; i < length; i++) {
+                        results[i] = results[i] == values[i] ? 1 : 0;
+                    }
+                }
+        }
+    }
+
+    private static long sum(int[] results, int length) {
+        long total = 0;
+        for (int i = 0; i < length; i++) {
+            total += results[i];
+        }
+        return total;
+    }
+
+    // Decimal digits of a non-negative number, 0 has none
+    private static int digitCount(long magnitude) {
+        int digits = 0;
+        while (magnitude != 0) {
+            digits++;
+            magnitude /= 10;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits how long one command may run: a budget of loop iterations, a wall-clock timeout and a
+// cancel flag that another thread can raise (Ctrl-C, a session being shut down). The engines do
+// not check it on every iteration. Each one takes an allowance, counts it down on loop
+// back-edges and polls with the iterations it ran once the allowance is used up or the loop
+// ends, so a tight loop pays one decrement per iteration. Allowances are at most CHECK_INTERVAL
+// and never reach past the first iteration over the step limit, so a single engine is stopped on
+// exactly that iteration; a timeout or cancel is noticed within CHECK_INTERVAL iterations.
+public class ExecutionBudget {
+    // Loop iterations between two polls, a power of two
+    public static final int CHECK_INTERVAL = 1 << 12;
+
+    private final AtomicLong steps = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile long deadline; // System.nanoTime() at which the command times out, 0 for none
+    private long maxSteps;          // 0 for no limit
+    private long timeoutNanos;      // 0 for no limit
+
+    // Loop iterations one command may run, 0 for no limit
+    public void setMaxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+    }
+
+    // Wall-clock time one command may run, 0 for no limit
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutNanos = timeoutMillis * 1_000_000;
+    }
+
+    // Called when a command starts, clears the count, the deadline and an earlier cancel
+    public void start() {
+        steps.set(0);
+        cancelled = false;
+        deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+    }
+
+    // Stops the running command at its next poll, safe to call from any thread
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Loop iterations an engine may run before it polls
+    public int allowance() {
+        return allowanceAfter(steps.get());
+    }
+
+    // Adds the loop iterations run since the last poll, throws when the command has to stop and
+    // otherwise returns the next allowance. Threads of a parallel loop poll the same budget.
+    public int poll(int iterations) {
+        return allowanceAfter(check(steps.addAndGet(iterations)));
+    }
+
+    // True when that many more loop iterations stay within the step limit
+    public boolean allows(long iterations) {
+        long max = maxSteps;
+        return max == 0 || steps.get() + iterations <= max;
+    }
+
+    // Adds the iterations of a loop computed in one go (see Statement.ClosedFormLoop), the caller
+    // checked them with allows first. Still throws on a timeout or cancel.
+    public void charge(long iterations) {
+        check(steps.addAndGet(iterations));
+    }
+
+    // Throws when the command has to stop after total iterations, otherwise returns total
+    private long check(long total) {
+        if (cancelled) {
+            throw new ExecutionInterruptedException("Command cancelled.");
+        }
+        long max = maxSteps;
+        if (max > 0 && total > max) {
+            throw new ExecutionInterruptedException("Command stopped, it exceeded its limit of " + max + " loop iterations.");
+        }
+        long end = deadline;
+        if (end != 0 && System.nanoTime() - end > 0) {
+            throw new ExecutionInterruptedException("Command stopped after " + timeoutNanos / 1_000_000 + " ms.");
+        }
+        return total;
+    }
+
+    private int allowanceAfter(long total) {
+        long max = maxSteps;
+        if (max == 0) {
+            return CHECK_INTERVAL;
+        }
+        return (int) Math.max(1, Math.min(CHECK_INTERVAL, max - total + 1));
+    }
+}
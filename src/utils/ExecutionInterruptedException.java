@@ -0,0 +1,11 @@
+package utils;
+
+// Thrown when a command is cancelled or runs over its ExecutionBudget. The variables keep the
+// values they had when the command was stopped.
+public class ExecutionInterruptedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ExecutionInterruptedException(String message) {
+        super(message);
+    }
+}
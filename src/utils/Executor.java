@@ -0,0 +1,284 @@
+package utils;
+
+import java.util.function.Consumer;
+
+// Runs statement trees produced by the Parser, no string parsing happens here
+public class Executor {
+    private final VariableStorage variableStorage;
+    private final Output output;
+    private final Consumer<String> commandHandler;
+    private final boolean sharedStorage;
+    private JitCompiler jitCompiler;
+    private Profiler profiler;
+    private ExecutionBudget budget = new ExecutionBudget();
+    // Loop iterations allowed since the last poll and how many of them are left
+    private int pollAllowance = ExecutionBudget.CHECK_INTERVAL;
+    private int pollCountdown = ExecutionBudget.CHECK_INTERVAL;
+
+    // The command handler runs statements the tree does not model itself (algorithms, list, ...)
+    public Executor(VariableStorage variableStorage, Output output, Consumer<String> commandHandler) {
+        this.variableStorage = variableStorage;
+        this.output = output;
+        this.commandHandler = commandHandler;
+        this.sharedStorage = variableStorage.isShared();
+    }
+
+    // Hot while loops are handed to the JIT compiler, null keeps everything interpreted
+    public void setJitCompiler(JitCompiler jitCompiler) {
+        this.jitCompiler = jitCompiler;
+    }
+
+    // Times every statement inside blocks, compiled loops are skipped while it is set
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    // Polled on loop back-edges, the default one never stops a command unless it is cancelled
+    public void setBudget(ExecutionBudget budget) {
+        this.budget = budget;
+        startBudget();
+    }
+
+    public ExecutionBudget getBudget() {
+        return budget;
+    }
+
+    // Takes a fresh allowance, called after the budget was started for a new command or charged
+    // directly
+    public void startBudget() {
+        pollAllowance = budget.allowance();
+        pollCountdown = pollAllowance;
+    }
+
+    public void execute(Statement statement) {
+        statement.execute(this);
+    }
+
+    void executeVarDeclaration(Statement.VarDeclaration statement) {
+        assign(statement.slot, statement.value);
+    }
+
+    void executeAssignment(Statement.Assignment statement) {
+        assign(statement.slot, statement.value);
+    }
+
+    void executePrint(Statement.Print statement) {
+        Expression value = statement.value;
+        if (value.isIntValued()) {
+            output.println(evaluateInt(value));
+        } else {
+            output.println(evaluate(value));
+        }
+    }
+
+    void executeIf(Statement.If statement) {
+        if (statement.condition.evaluateCondition(variableStorage)) {
+            statement.thenBranch.execute(this);
+        } else if (statement.elseBranch != null) {
+            statement.elseBranch.execute(this);
+        }
+    }
+
+    void executeWhile(Statement.While statement) {
+        Expression condition = statement.condition;
+        Statement.Block body = statement.body;
+        for (Expression.Invariant invariant : statement.invariants) {
+            invariant.reset();
+        }
+        // The profiler needs to see the body statements, so a profiled loop stays interpreted
+        JitCompiler jit = profiler == null ? jitCompiler : null;
+        long iterations = 0;
+        try {
+            if (jit == null) {
+                while (condition.evaluateCondition(variableStorage)) {
+                    body.execute(this);
+                    iterations++;
+                    if (--pollCountdown == 0) {
+                        pollBudget();
+                    }
+                }
+                return;
+            }
+
+            int threshold = jit.getThreshold();
+            while (condition.evaluateCondition(variableStorage)) {
+                body.execute(this);
+                if (--pollCountdown == 0) {
+                    pollBudget();
+                }
+                // Once hot, try to finish the loop in compiled code, it declines when the types do not fit.
+                // The compiled loop takes its own allowance, so the iterations so far are charged first.
+                if (++iterations == threshold && settleBudget() && jit.tryRun(statement, variableStorage, budget)) {
+                    InterpreterMetrics.global().recordCompiledLoopRun();
+                    return;
+                }
+            }
+        } finally {
+            // Iterations finished in compiled code are not counted, only the compiled run itself
+            InterpreterMetrics.global().recordLoopIterations(iterations);
+        }
+    }
+
+    private void pollBudget() {
+        pollAllowance = budget.poll(pollAllowance);
+        pollCountdown = pollAllowance;
+    }
+
+    // Charges the iterations counted since the last poll, always true so it can guard a call
+    private boolean settleBudget() {
+        pollAllowance = budget.poll(pollAllowance - pollCountdown);
+        pollCountdown = pollAllowance;
+        return true;
+    }
+
+    void executeClosedFormLoop(Statement.ClosedFormLoop statement) {
+        VariableStorage storage = variableStorage;
+        if (!allInts(statement)) {
+            // Let the original loop run into the same error it always did
+            executeWhile(statement.loop);
+            return;
+        }
+
+        long start = storage.getInt(statement.counterSlot);
+        long limit = statement.limit.evaluateInt(storage);
+        long step = statement.step;
+        long count;
+        if (statement.inclusive) {
+            count = start <= limit ? (limit - start) / step + 1 : 0;
+        } else {
+            count = start < limit ? (limit - start + step - 1) / step : 0;
+        }
+        long end = start + count * step;
+        if (end > Integer.MAX_VALUE) {
+            // The counter would wrap around and the loop would not end where the formula says
+            executeWhile(statement.loop);
+            return;
+        }
+        // The iterations count against the step limit as if the loop ran, one that would exceed it
+        // runs for real so it stops on the same iteration with the same variables
+        settleBudget();
+        if (!budget.allows(count)) {
+            executeWhile(statement.loop);
+            return;
+        }
+        budget.charge(count);
+        startBudget();
+
+        for (int i = 0; i < statement.accumulatorSlots.length; i++) {
+            Expression term = statement.terms[i];
+            long sum;
+            if (term instanceof Expression.Variable && ((Expression.Variable) term).slot == statement.counterSlot) {
+                // start + (start + step) + ... over count values, shifted by one step when read after stepping
+                long triangle = statement.afterStep[i] ? halfProduct(count, count + 1) : halfProduct(count, count - 1);
+                sum = count * start + step * triangle;
+            } else {
+                sum = count * term.evaluateInt(storage);
+            }
+            int slot = statement.accumulatorSlots[i];
+            // Long arithmetic wraps modulo 2^64, so the int cast matches the wrapped int loop
+            storage.setInt(slot, (int) (storage.getInt(slot) + sum));
+        }
+        storage.setInt(statement.counterSlot, (int) end);
+    }
+
+    // Every variable a closed form reads must hold an int, like the loop would require
+    private boolean allInts(Statement.ClosedFormLoop statement) {
+        VariableStorage storage = variableStorage;
+        if (storage.typeOf(statement.counterSlot) != VariableStorage.INT) {
+            return false;
+        }
+        if (statement.limit instanceof Expression.Variable
+                && storage.typeOf(((Expression.Variable) statement.limit).slot) != VariableStorage.INT) {
+            return false;
+        }
+        for (int i = 0; i < statement.accumulatorSlots.length; i++) {
+            if (storage.typeOf(statement.accumulatorSlots[i]) != VariableStorage.INT) {
+                return false;
+            }
+            Expression term = statement.terms[i];
+            if (term instanceof Expression.Variable
+                    && storage.typeOf(((Expression.Variable) term).slot) != VariableStorage.INT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a * b / 2 for consecutive a and b, halving the even one first so the product cannot lose bits
+    private static long halfProduct(long a, long b) {
+        return (a % 2 == 0) ? (a / 2) * b : a * (b / 2);
+    }
+
+    void executeParallelFor(Statement.ParallelFor statement) {
+        ParallelLoop.run(statement, variableStorage, budget);
+    }
+
+    void executeBlock(Statement.Block block) {
+        Profiler profiler = this.profiler;
+        if (profiler != null) {
+            executeProfiled(block, profiler);
+            return;
+        }
+        for (Statement statement : block.statements) {
+            statement.execute(this);
+        }
+    }
+
+    private void executeProfiled(Statement.Block block, Profiler profiler) {
+        for (Statement statement : block.statements) {
+            Profiler.Stats stats = profiler.statsFor(statement.getSource());
+            long allocated = profiler.allocatedBytes();
+            long start = System.nanoTime();
+            try {
+                statement.execute(this);
+            } finally {
+                stats.record(System.nanoTime() - start, profiler.allocatedBytes() - allocated);
+            }
+        }
+    }
+
+    void executeCommand(Statement.Command statement) {
+        commandHandler.accept(statement.getSource());
+    }
+
+    // In a shared storage evaluating and storing happen under the slot's lock, so x = x + 1 is atomic
+    private void assign(int slot, Expression value) {
+        if (sharedStorage) {
+            variableStorage.atomically(slot, () -> store(slot, value));
+        } else {
+            store(slot, value);
+        }
+    }
+
+    // Stores the value of an expression into a slot, ints never get boxed on the way
+    private void store(int slot, Expression value) {
+        try {
+            if (value.isIntValued()) {
+                variableStorage.setInt(slot, value.evaluateInt(variableStorage));
+            } else if (value instanceof Expression.Variable) {
+                variableStorage.copy(((Expression.Variable) value).slot, slot);
+            } else {
+                variableStorage.set(slot, value.evaluate(variableStorage));
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid expression: " + value.getSource());
+        }
+    }
+
+    private int evaluateInt(Expression expression) {
+        try {
+            return expression.evaluateInt(variableStorage);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid expression: " + expression.getSource());
+        }
+    }
+
+    // Evaluates a value expression, reporting failures the same way the Reader does
+    private Object evaluate(Expression expression) {
+        try {
+            return expression.evaluate(variableStorage);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid expression: " + expression.getSource());
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package utils;
+
+// A compiled expression, built once by the ExpressionCompiler and evaluated many times.
+// Integer results go through evaluateInt, which never allocates. Variables are bound to the
+// slots of the VariableStorage the expression was compiled against, so it must be evaluated
+// against that same storage.
+public abstract class Expression {
+    private final String source;
+
+    protected Expression(String source) {
+        this.source = source;
+    }
+
+    // The source text the expression was compiled from, used in error messages
+    public String getSource() {
+        return source;
+    }
+
+    // Evaluates the expression as an integer
+    public abstract int evaluateInt(VariableStorage variableStorage);
+
+    // Evaluates the expression to its value (Integer or String)
+    public Object evaluate(VariableStorage variableStorage) {
+        return evaluateInt(variableStorage);
+    }
+
+    // Evaluates the expression as a loop or if condition
+    public boolean evaluateCondition(VariableStorage variableStorage) {
+        throw new IllegalArgumentException("Invalid comparison expression: " + source);
+    }
+
+    // True when the expression always produces an integer, whatever the variables hold
+    public boolean isIntValued() {
+        return true;
+    }
+
+    // An integer literal such as 42 or -7
+    public static final class IntLiteral extends Expression {
+        final int value;
+        private final Integer boxed;
+
+        public IntLiteral(String source, int value) {
+            super(source);
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return value;
+        }
+
+        @Override
+        public Object evaluate(VariableStorage variableStorage) {
+            return boxed;
+        }
+    }
+
+    // A string literal, stored without its quotes
+    public static final class StringLiteral extends Expression {
+        final String value;
+
+        public StringLiteral(String source, String value) {
+            super(source);
+            this.value = value;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            throw new IllegalArgumentException("Invalid operand: " + getSource());
+        }
+
+        @Override
+        public Object evaluate(VariableStorage variableStorage) {
+            return value;
+        }
+
+        @Override
+        public boolean isIntValued() {
+            return false;
+        }
+    }
+
+    // A reference to a stored variable, the one operand lookup shared by arithmetic and comparisons.
+    // The name is resolved to its storage slot at compile time.
+    public static final class Variable extends Expression {
+        final String name;
+        final int slot;
+
+        public Variable(String name, int slot) {
+            super(name);
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return variableStorage.getInt(slot);
+        }
+
+        @Override
+        public Object evaluate(VariableStorage variableStorage) {
+            return variableStorage.get(slot);
+        }
+
+        @Override
+        public boolean isIntValued() {
+            return false;
+        }
+    }
+
+    // A name that had no slot when the expression was compiled and that the statement does not
+    // assign, typically a typo. No slot is reserved for it, so such names cannot grow the storage;
+    // it is looked up by name on every evaluation and reads the variable once one is declared.
+    public static final class UnresolvedVariable extends Expression {
+        final String name;
+
+        public UnresolvedVariable(String name) {
+            super(name);
+            this.name = name;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return variableStorage.getInt(slot(variableStorage));
+        }
+
+        @Override
+        public Object evaluate(VariableStorage variableStorage) {
+            return variableStorage.get(slot(variableStorage));
+        }
+
+        @Override
+        public boolean isIntValued() {
+            return false;
+        }
+
+        private int slot(VariableStorage variableStorage) {
+            int slot = variableStorage.findSlot(name);
+            if (slot < 0) {
+                throw new IllegalArgumentException("Invalid operand: " + name);
+            }
+            return slot;
+        }
+    }
+
+    // -<operand>
+    public static final class Negate extends Expression {
+        final Expression operand;
+
+        public Negate(String source, Expression operand) {
+            super(source);
+            this.operand = operand;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return -operand.evaluateInt(variableStorage);
+        }
+    }
+
+    // A loop invariant sub-expression hoisted by the Optimizer. It is computed on first use after
+    // each entry into its loop and then reused, so errors still surface where they did before.
+    public static final class Invariant extends Expression {
+        final Expression expression;
+        private int value;
+        private boolean valid;
+
+        public Invariant(Expression expression) {
+            super(expression.getSource());
+            this.expression = expression;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            if (!valid) {
+                value = expression.evaluateInt(variableStorage);
+                valid = true;
+            }
+            return value;
+        }
+
+        // Called by the enclosing loop on entry
+        void reset() {
+            valid = false;
+        }
+    }
+
+    // Common shape of the binary arithmetic operators
+    public abstract static class Binary extends Expression {
+        final char operator;
+        final Expression left;
+        final Expression right;
+
+        protected Binary(String source, char operator, Expression left, Expression right) {
+            super(source);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    public static final class Add extends Binary {
+        public Add(String source, Expression left, Expression right) {
+            super(source, '+', left, right);
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return left.evaluateInt(variableStorage) + right.evaluateInt(variableStorage);
+        }
+    }
+
+    public static final class Subtract extends Binary {
+        public Subtract(String source, Expression left, Expression right) {
+            super(source, '-', left, right);
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return left.evaluateInt(variableStorage) - right.evaluateInt(variableStorage);
+        }
+    }
+
+    public static final class Multiply extends Binary {
+        public Multiply(String source, Expression left, Expression right) {
+            super(source, '*', left, right);
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            return left.evaluateInt(variableStorage) * right.evaluateInt(variableStorage);
+        }
+    }
+
+    public static final class Divide extends Binary {
+        public Divide(String source, Expression left, Expression right) {
+            super(source, '/', left, right);
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            int dividend = left.evaluateInt(variableStorage);
+            int divisor = right.evaluateInt(variableStorage);
+            if (divisor == 0) {
+                throw new ArithmeticException("Cannot divide by zero.");
+            }
+            return dividend / divisor;
+        }
+    }
+
+    public static final class Remainder extends Binary {
+        public Remainder(String source, Expression left, Expression right) {
+            super(source, '%', left, right);
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            int dividend = left.evaluateInt(variableStorage);
+            int divisor = right.evaluateInt(variableStorage);
+            if (divisor == 0) {
+                throw new ArithmeticException("Cannot divide by zero.");
+            }
+            return dividend % divisor;
+        }
+    }
+
+    // A call of a built-in int function such as sumOfDigits(i) or max(m, i). The checks among
+    // the algorithms give 1 for true and 0 for false, so they can be summed or compared.
+    public static final class Call extends Expression {
+        private static final Algorithms ALGORITHMS = new Algorithms();
+
+        public enum Function {
+            SUM_OF_NUMBERS("sumOfNumbers", 1),
+            GCD("gcd", 2),
+            REVERSE("reverse", 1),
+            PRIME_CHECKER("primeChecker", 1),
+            PALINDROME_CHECKER("palindromeChecker", 1),
+            LARGEST_DIGIT("largestDigit", 1),
+            SUM_OF_DIGITS("sumOfDigits", 1),
+            MIN("min", 2),
+            MAX("max", 2);
+
+            final String name;
+            final int arity;
+
+            Function(String name, int arity) {
+                this.name = name;
+                this.arity = arity;
+            }
+
+            // The function with the given name, null when there is none
+            static Function named(String name) {
+                for (Function function : values()) {
+                    if (function.name.equals(name)) {
+                        return function;
+                    }
+                }
+                return null;
+            }
+
+            // The second argument is ignored by the functions that take one
+            int apply(int a, int b) {
+                switch (this) {
+                    case SUM_OF_NUMBERS:
+                        return ALGORITHMS.sumOfNumbers(a);
+                    case GCD:
+                        return ALGORITHMS.gcd(a, b);
+                    case REVERSE:
+                        return ALGORITHMS.reverse(a);
+                    case PRIME_CHECKER:
+                        return ALGORITHMS.primeChecker(a) ? 1 : 0;
+                    case PALINDROME_CHECKER:
+                        return ALGORITHMS.palindromeChecker(a) ? 1 : 0;
+                    case LARGEST_DIGIT:
+                        return ALGORITHMS.largestDigit(a);
+                    case SUM_OF_DIGITS:
+                        return ALGORITHMS.sumOfDigits(a);
+                    case MIN:
+                        return Math.min(a, b);
+                    default:
+                        return Math.max(a, b);
+                }
+            }
+        }
+
+        final Function function;
+        final Expression[] arguments;
+
+        public Call(String source, Function function, Expression[] arguments) {
+            super(source);
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            int a = arguments[0].evaluateInt(variableStorage);
+            int b = arguments.length > 1 ? arguments[1].evaluateInt(variableStorage) : 0;
+            return function.apply(a, b);
+        }
+    }
+
+    // A comparison (==, !=, <, <=, >, >=) between two integer operands
+    public static final class Comparison extends Expression {
+        final Token.Type operator;
+        final Expression left;
+        final Expression right;
+
+        public Comparison(String source, Token.Type operator, Expression left, Expression right) {
+            super(source);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int evaluateInt(VariableStorage variableStorage) {
+            throw new IllegalArgumentException("A comparison is not an integer: " + getSource());
+        }
+
+        @Override
+        public Object evaluate(VariableStorage variableStorage) {
+            return evaluateCondition(variableStorage);
+        }
+
+        @Override
+        public boolean isIntValued() {
+            return false;
+        }
+
+        @Override
+        public boolean evaluateCondition(VariableStorage variableStorage) {
+            int a = left.evaluateInt(variableStorage);
+            int b = right.evaluateInt(variableStorage);
+
+            switch (operator) {
+                case EQUAL:
+                    return a == b;
+                case NOT_EQUAL:
+                    return a != b;
+                case LESS_EQUAL:
+                    return a <= b;
+                case GREATER_EQUAL:
+                    return a >= b;
+                case LESS:
+                    return a < b;
+                default:
+                    return a > b;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Compiles expression text into reusable Expression objects and remembers them,
+// so evaluating the same text again skips parsing entirely
+public class ExpressionCompiler {
+    private static final int MAX_CACHED_EXPRESSIONS = 1024;
+
+    private final Parser parser;
+    private final Map<String, Expression> expressions = new HashMap<>();
+    private final Map<String, Expression> conditions = new HashMap<>();
+
+    // Compiled expressions are bound to the slots of this storage
+    public ExpressionCompiler(VariableStorage variableStorage) {
+        this.parser = new Parser(variableStorage);
+    }
+
+    // Compiles an arithmetic expression such as "a + b * (c - 1)"
+    public Expression compile(String source) {
+        Expression expression = expressions.get(source);
+        if (expression == null) {
+            expression = parser.parseExpression(source);
+            remember(expressions, source, expression);
+        }
+        return expression;
+    }
+
+    // Compiles a comparison such as "x * 2 <= limit"
+    public Expression compileCondition(String source) {
+        Expression condition = conditions.get(source);
+        if (condition == null) {
+            condition = parser.parseCondition(source);
+            remember(conditions, source, condition);
+        }
+        return condition;
+    }
+
+    // Keeps the cache bounded, generated scripts can produce endless distinct expressions
+    private void remember(Map<String, Expression> cache, String source, Expression expression) {
+        if (cache.size() >= MAX_CACHED_EXPRESSIONS) {
+            cache.clear();
+        }
+        cache.put(source, expression);
+    }
+}
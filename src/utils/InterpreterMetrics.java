@@ -0,0 +1,231 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Process wide counters for monitoring, published through JMX as minikotlin:type=Interpreter.
+// All sessions record into the same LongAdders, which keep contended increments cheap enough to
+// leave on. Loops add their iteration count once when they end, not once per iteration.
+public class InterpreterMetrics implements InterpreterMetricsMXBean {
+    public static final String OBJECT_NAME = "minikotlin:type=Interpreter";
+
+    // Latency buckets by powers of two nanoseconds, the last one collects everything above 2^39 ns
+    private static final int BUCKETS = 40;
+
+    public enum CommandType {
+        IF, WHILE, PARALLEL, VAR, PRINT, LIST, ALGORITHM, SAVE, LOAD, PROFILE, CACHE_STATS, HELP, METHODS, EXIT, UNKNOWN
+    }
+
+    private static final InterpreterMetrics GLOBAL = register(new InterpreterMetrics());
+
+    private final LongAdder[] commandCounts = adders(CommandType.values().length);
+    private final LongAdder[][] commandLatencies = new LongAdder[CommandType.values().length][];
+    private final Map<String, LongAdder> algorithmInvocations = new ConcurrentHashMap<>();
+    private final LongAdder loopIterations = new LongAdder();
+    private final LongAdder compiledLoopRuns = new LongAdder();
+    private final LongAdder evaluationErrors = new LongAdder();
+    private final Set<VariableStorage> storages = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    InterpreterMetrics() {
+        for (int i = 0; i < commandLatencies.length; i++) {
+            commandLatencies[i] = adders(BUCKETS);
+        }
+    }
+
+    // The metrics of this JVM, registered with the platform MBean server in the background
+    public static InterpreterMetrics global() {
+        return GLOBAL;
+    }
+
+    public void recordCommand(CommandType type, long nanos) {
+        commandCounts[type.ordinal()].increment();
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+        commandLatencies[type.ordinal()][bucket].increment();
+    }
+
+    public void recordAlgorithm(String method) {
+        algorithmInvocations.computeIfAbsent(method, name -> new LongAdder()).increment();
+    }
+
+    public void recordLoopIterations(long iterations) {
+        loopIterations.add(iterations);
+    }
+
+    public void recordCompiledLoopRun() {
+        compiledLoopRuns.increment();
+    }
+
+    public void recordError() {
+        evaluationErrors.increment();
+    }
+
+    // Counts the variables of a session, the storage is forgotten once it is garbage
+    public void track(VariableStorage variableStorage) {
+        storages.add(variableStorage);
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (CommandType type : CommandType.values()) {
+            counts.put(type.name(), commandCounts[type.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, long[]> getCommandLatencyHistograms() {
+        Map<String, long[]> histograms = new LinkedHashMap<>();
+        for (CommandType type : CommandType.values()) {
+            histograms.put(type.name(), histogram(type));
+        }
+        return histograms;
+    }
+
+    @Override
+    public Map<String, Double> getCommandLatencyP50Micros() {
+        return percentiles(0.50);
+    }
+
+    @Override
+    public Map<String, Double> getCommandLatencyP99Micros() {
+        return percentiles(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getAlgorithmInvocations() {
+        Map<String, Long> invocations = new LinkedHashMap<>();
+        algorithmInvocations.forEach((method, count) -> invocations.put(method, count.sum()));
+        return invocations;
+    }
+
+    @Override
+    public long getLoopIterations() {
+        return loopIterations.sum();
+    }
+
+    @Override
+    public long getCompiledLoopRuns() {
+        return compiledLoopRuns.sum();
+    }
+
+    @Override
+    public long getEvaluationErrors() {
+        return evaluationErrors.sum();
+    }
+
+    @Override
+    public int getSessions() {
+        return storages.size();
+    }
+
+    @Override
+    public long getVariableCount() {
+        long count = 0;
+        for (VariableStorage storage : liveStorages()) {
+            count += storage.getVariableCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getVariableFootprintBytes() {
+        long bytes = 0;
+        for (VariableStorage storage : liveStorages()) {
+            bytes += storage.estimateFootprintBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : commandCounts) {
+            count.reset();
+        }
+        for (LongAdder[] histogram : commandLatencies) {
+            for (LongAdder bucket : histogram) {
+                bucket.reset();
+            }
+        }
+        algorithmInvocations.clear();
+        loopIterations.reset();
+        compiledLoopRuns.reset();
+        evaluationErrors.reset();
+    }
+
+    private long[] histogram(CommandType type) {
+        LongAdder[] buckets = commandLatencies[type.ordinal()];
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    private Map<String, Double> percentiles(double percentile) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (CommandType type : CommandType.values()) {
+            long[] counts = histogram(type);
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                continue;
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    result.put(type.name(), (1L << bucket) / 1000.0);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<VariableStorage> liveStorages() {
+        synchronized (storages) {
+            return new ArrayList<>(storages);
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // Starting the platform MBean server takes about half a second, so it happens off the main thread
+    private static InterpreterMetrics register(InterpreterMetrics metrics) {
+        Thread registration = new Thread(() -> {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(metrics, name);
+                }
+            } catch (JMException | SecurityException e) {
+                // Monitoring is optional, the interpreter runs the same without it
+            }
+        }, "minikotlin-jmx");
+        registration.setDaemon(true);
+        registration.start();
+        return metrics;
+    }
+}
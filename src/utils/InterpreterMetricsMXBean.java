@@ -0,0 +1,33 @@
+package utils;
+
+import java.util.Map;
+
+// Management interface of InterpreterMetrics, registered as minikotlin:type=Interpreter
+public interface InterpreterMetricsMXBean {
+    // Commands run at the top level, by the branch of Reader.processCommand that handled them
+    Map<String, Long> getCommandCounts();
+
+    // Command latency per type, bucket i counts commands that took less than 2^i nanoseconds
+    Map<String, long[]> getCommandLatencyHistograms();
+
+    // Upper bound of the bucket holding the given percentile, in microseconds
+    Map<String, Double> getCommandLatencyP50Micros();
+
+    Map<String, Double> getCommandLatencyP99Micros();
+
+    Map<String, Long> getAlgorithmInvocations();
+
+    long getLoopIterations();
+
+    long getCompiledLoopRuns();
+
+    long getEvaluationErrors();
+
+    int getSessions();
+
+    long getVariableCount();
+
+    long getVariableFootprintBytes();
+
+    void reset();
+}
@@ -0,0 +1,174 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Serves interactive MiniKotlin sessions over a local TCP or Unix domain socket. Every
+// connection gets its own VariableStorage and Reader and runs on its own thread, a virtual
+// thread when the JVM provides them.
+public class InterpreterServer implements Closeable {
+    public static final int DEFAULT_PORT = 7070;
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    // How long close() lets running sessions finish before disconnecting them
+    private static final long SHUTDOWN_GRACE_SECONDS = 5;
+
+    private final ServerSocketChannel serverChannel;
+    private final Path socketFile;
+    private final Semaphore sessionPermits;
+    private final ExecutorService sessionThreads = newSessionExecutor();
+    private final Set<SocketChannel> openSessions = ConcurrentHashMap.newKeySet();
+    private final Set<Reader> openReaders = ConcurrentHashMap.newKeySet();
+    private final Consumer<Reader> readerOptions;
+    private volatile VariableStorage sharedStorage;
+    private volatile boolean running = true;
+
+    private InterpreterServer(ServerSocketChannel serverChannel, Path socketFile, int maxSessions,
+                              Consumer<Reader> readerOptions) {
+        this.serverChannel = serverChannel;
+        this.socketFile = socketFile;
+        this.sessionPermits = new Semaphore(maxSessions);
+        this.readerOptions = readerOptions;
+    }
+
+    // Listens on the loopback interface, readerOptions is applied to the Reader of every session
+    public static InterpreterServer tcp(int port, int maxSessions, Consumer<Reader> readerOptions) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return new InterpreterServer(channel, null, maxSessions, readerOptions);
+    }
+
+    // Listens on a Unix domain socket file, which is removed again on close
+    public static InterpreterServer unix(Path socketFile, int maxSessions, Consumer<Reader> readerOptions) throws IOException {
+        Files.deleteIfExists(socketFile);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socketFile));
+        return new InterpreterServer(channel, socketFile, maxSessions, readerOptions);
+    }
+
+    // Lets every session work on the same global variables, null gives each session its own
+    public void setSharedStorage(VariableStorage sharedStorage) {
+        this.sharedStorage = sharedStorage;
+    }
+
+    public String getAddress() throws IOException {
+        return String.valueOf(serverChannel.getLocalAddress());
+    }
+
+    public int getActiveSessions() {
+        return openSessions.size();
+    }
+
+    // Accepts connections until close() is called
+    public void serve() throws IOException {
+        while (running) {
+            SocketChannel client;
+            try {
+                client = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            }
+
+            if (!sessionPermits.tryAcquire()) {
+                reject(client);
+                continue;
+            }
+            openSessions.add(client);
+            sessionThreads.execute(() -> runSession(client));
+        }
+    }
+
+    private void runSession(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            InputStream input = Channels.newInputStream(channel);
+            OutputStream stream = Channels.newOutputStream(channel);
+            VariableStorage shared = sharedStorage;
+            Reader reader = new Reader(shared != null ? shared : new VariableStorage(), new Output(stream));
+            readerOptions.accept(reader);
+            openReaders.add(reader);
+            try {
+                reader.start(input);
+            } finally {
+                openReaders.remove(reader);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client went away or the server is shutting down, only this session ends
+        } finally {
+            openSessions.remove(client);
+            sessionPermits.release();
+        }
+    }
+
+    private void reject(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.write(ByteBuffer.wrap("Error: Too many sessions, try again later.\n".getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            // Nothing more to tell a client that is already gone
+        }
+    }
+
+    // Stops accepting, gives running sessions a grace period and then cancels their commands and
+    // disconnects them
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        serverChannel.close();
+        sessionThreads.shutdown();
+        try {
+            if (!sessionThreads.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                // A session busy in a loop would not notice its socket closing
+                for (Reader reader : openReaders) {
+                    reader.cancel();
+                }
+                for (SocketChannel session : openSessions) {
+                    session.close();
+                }
+                sessionThreads.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    // Virtual threads when the running JVM has them (Java 21+), otherwise a thread per session
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "minikotlin-session");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Second tier for hot while loops: turns the loop into a JVM method of a hidden class so
+// HotSpot compiles it like any Java loop. Only loops working purely on int variables qualify,
+// everything else keeps running in the tree executor.
+//
+// The generated method is "static int run(int[] values, ExecutionBudget budget)". The variables
+// of the loop are copied into values before the call and back afterwards; inside the method they
+// live in JVM locals. It returns 0 when the loop finished, or the 1-based index of a division
+// that hit a zero divisor, after storing the variables back so the interpreter sees the state at
+// that point. The method takes budget.allowance() as its fuel and every back-edge decrements it;
+// when it runs out the variables are stored and budget.poll() charges the iterations and hands out
+// more fuel, or throws when the command has to stop. The unused rest is charged on the way out.
+public class JitCompiler {
+    // Loops are compiled after this many interpreted iterations
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final int MAX_LOCALS = 250;
+    private static final int MAX_CODE_LENGTH = 32000;
+    private static final MethodType RUN_TYPE = MethodType.methodType(int.class, int[].class, ExecutionBudget.class);
+
+    private final int threshold;
+
+    public JitCompiler() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public JitCompiler(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    // Runs the rest of a loop natively, returns false when the loop has to stay interpreted
+    public boolean tryRun(Statement.While loop, VariableStorage variableStorage, ExecutionBudget budget) {
+        if (loop.notCompilable) {
+            return false;
+        }
+        CompiledLoop compiled = loop.compiledLoop;
+        if (compiled == null) {
+            compiled = compile(loop);
+            if (compiled == null) {
+                loop.notCompilable = true;
+                return false;
+            }
+            loop.compiledLoop = compiled;
+        }
+        return compiled.run(variableStorage, budget);
+    }
+
+    // Generates and loads the hidden class, null when the loop uses something not supported
+    CompiledLoop compile(Statement.While loop) {
+        Map<Integer, Integer> locals = new LinkedHashMap<>();
+        if (!collectVariables(loop, locals) || locals.size() > MAX_LOCALS) {
+            return null;
+        }
+
+        MethodBuilder method = new MethodBuilder(locals);
+        method.loadVariables();
+        method.startFuel();
+        method.whileLoop(loop);
+        method.storeVariables();
+        method.chargeFuel();
+        method.constant(0);
+        method.op(IRETURN, -1);
+
+        if (method.length() > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        try {
+            byte[] classFile = method.toClassFile();
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), "run", RUN_TYPE);
+            int[] slots = locals.keySet().stream().mapToInt(Integer::intValue).toArray();
+            return new CompiledLoop(run, slots, method.divisionContexts.toArray(new String[0]));
+        } catch (ReflectiveOperationException | IOException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // Checks the loop only uses int assignments, ifs and nested whiles, and numbers its variables
+    private boolean collectVariables(Statement statement, Map<Integer, Integer> locals) {
+        if (statement instanceof Statement.Assignment) {
+            Statement.Assignment assignment = (Statement.Assignment) statement;
+            return assignment.value.isIntValued() && addLocal(assignment.slot, locals)
+                    && collectVariables(assignment.value, locals);
+        }
+        if (statement instanceof Statement.VarDeclaration) {
+            Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+            return declaration.value.isIntValued() && addLocal(declaration.slot, locals)
+                    && collectVariables(declaration.value, locals);
+        }
+        if (statement instanceof Statement.If) {
+            Statement.If ifStatement = (Statement.If) statement;
+            return ifStatement.condition instanceof Expression.Comparison
+                    && collectVariables(ifStatement.condition, locals)
+                    && collectVariables(ifStatement.thenBranch, locals)
+                    && (ifStatement.elseBranch == null || collectVariables(ifStatement.elseBranch, locals));
+        }
+        if (statement instanceof Statement.While) {
+            Statement.While loop = (Statement.While) statement;
+            return loop.condition instanceof Expression.Comparison
+                    && collectVariables(loop.condition, locals)
+                    && collectVariables(loop.body, locals);
+        }
+        if (statement instanceof Statement.ClosedFormLoop) {
+            return collectVariables(((Statement.ClosedFormLoop) statement).loop, locals);
+        }
+        if (statement instanceof Statement.Block) {
+            for (Statement child : ((Statement.Block) statement).statements) {
+                if (!collectVariables(child, locals)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean collectVariables(Expression expression, Map<Integer, Integer> locals) {
+        if (expression instanceof Expression.IntLiteral) {
+            return true;
+        }
+        if (expression instanceof Expression.Variable) {
+            return addLocal(((Expression.Variable) expression).slot, locals);
+        }
+        if (expression instanceof Expression.Negate) {
+            return collectVariables(((Expression.Negate) expression).operand, locals);
+        }
+        if (expression instanceof Expression.Invariant) {
+            return collectVariables(((Expression.Invariant) expression).expression, locals);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            return collectVariables(binary.left, locals) && collectVariables(binary.right, locals);
+        }
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            return collectVariables(comparison.left, locals) && collectVariables(comparison.right, locals);
+        }
+        return false;
+    }
+
+    private boolean addLocal(int slot, Map<Integer, Integer> locals) {
+        // Locals 0 and 1 hold the values array and the budget, variables start at local 2
+        locals.putIfAbsent(slot, locals.size() + 2);
+        return true;
+    }
+
+    // A loaded loop together with the storage slots its locals map to
+    static final class CompiledLoop {
+        private final MethodHandle run;
+        private final int[] slots;
+        private final String[] divisionContexts;
+
+        CompiledLoop(MethodHandle run, int[] slots, String[] divisionContexts) {
+            this.run = run;
+            this.slots = slots;
+            this.divisionContexts = divisionContexts;
+        }
+
+        // Guards on every variable still holding an int, a type change falls back to the interpreter
+        boolean run(VariableStorage variableStorage, ExecutionBudget budget) {
+            int[] values = new int[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                if (variableStorage.typeOf(slots[i]) != VariableStorage.INT) {
+                    return false;
+                }
+                values[i] = variableStorage.getInt(slots[i]);
+            }
+
+            int status;
+            try {
+                status = (int) run.invokeExact(values, budget);
+            } catch (ExecutionInterruptedException e) {
+                // The loop stored its variables before polling, keep the state it stopped in
+                store(variableStorage, values);
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Compiled loop failed: " + e.getMessage(), e);
+            }
+
+            store(variableStorage, values);
+            if (status != 0) {
+                String context = divisionContexts[status - 1];
+                if (context == null) {
+                    throw new ArithmeticException("Cannot divide by zero.");
+                }
+                throw new IllegalArgumentException("Invalid expression: " + context);
+            }
+            return true;
+        }
+
+        private void store(VariableStorage variableStorage, int[] values) {
+            for (int i = 0; i < slots.length; i++) {
+                variableStorage.setInt(slots[i], values[i]);
+            }
+        }
+    }
+
+    // JVM opcodes used by the generator
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int IALOAD = 0x2e;
+    private static final int ISTORE = 0x36;
+    private static final int IASTORE = 0x4f;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int IDIV = 0x6c;
+    private static final int IREM = 0x70;
+    private static final int INEG = 0x74;
+    private static final int IINC = 0x84;
+    private static final int IFNE = 0x9a;
+    private static final int IFGT = 0x9d;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int INVOKEVIRTUAL = 0xb6;
+
+    // Emits the body of the run method and wraps it into a class file
+    private static final class MethodBuilder {
+        private final Map<Integer, Integer> locals;
+        private final List<Integer> integerConstants = new ArrayList<>();
+        final List<String> divisionContexts = new ArrayList<>();
+        private byte[] code = new byte[256];
+        private int length;
+        private int stack;
+        private int maxStack;
+
+        MethodBuilder(Map<Integer, Integer> locals) {
+            this.locals = locals;
+        }
+
+        int length() {
+            return length;
+        }
+
+        // The back-edges left until the budget is polled and the allowance they started from,
+        // after all variables
+        int fuelLocal() {
+            return locals.size() + 2;
+        }
+
+        int allowanceLocal() {
+            return locals.size() + 3;
+        }
+
+        // allowance = fuel = budget.allowance()
+        void startFuel() {
+            op(ALOAD_1, 1);
+            op(INVOKEVIRTUAL, 0);
+            u2(ALLOWANCE_METHOD);
+            storeAllowance();
+        }
+
+        // budget.poll(allowance - fuel), the result is dropped
+        void chargeFuel() {
+            op(ALOAD_1, 1);
+            op(ILOAD, 1);
+            u1(allowanceLocal());
+            op(ILOAD, 1);
+            u1(fuelLocal());
+            op(ISUB, -1);
+            op(INVOKEVIRTUAL, -1);
+            u2(POLL_METHOD);
+            op(POP, -1);
+        }
+
+        // Stores the allowance on top of the stack as the new fuel
+        private void storeAllowance() {
+            op(DUP, 1);
+            op(ISTORE, -1);
+            u1(allowanceLocal());
+            op(ISTORE, -1);
+            u1(fuelLocal());
+        }
+
+        void loadVariables() {
+            int index = 0;
+            for (int local : locals.values()) {
+                op(ALOAD_0, 1);
+                constant(index++);
+                op(IALOAD, -1);
+                op(ISTORE, -1);
+                u1(local);
+            }
+        }
+
+        void storeVariables() {
+            int index = 0;
+            for (int local : locals.values()) {
+                op(ALOAD_0, 1);
+                constant(index++);
+                op(ILOAD, 1);
+                u1(local);
+                op(IASTORE, -3);
+            }
+        }
+
+        void statement(Statement statement) {
+            if (statement instanceof Statement.Assignment) {
+                Statement.Assignment assignment = (Statement.Assignment) statement;
+                store(assignment.slot, assignment.value);
+            } else if (statement instanceof Statement.VarDeclaration) {
+                Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+                store(declaration.slot, declaration.value);
+            } else if (statement instanceof Statement.If) {
+                Statement.If ifStatement = (Statement.If) statement;
+                int jumpToElse = branchIfFalse((Expression.Comparison) ifStatement.condition);
+                statement(ifStatement.thenBranch);
+                if (ifStatement.elseBranch == null) {
+                    patch(jumpToElse, length);
+                } else {
+                    int jumpToEnd = jump(GOTO, 0);
+                    patch(jumpToElse, length);
+                    statement(ifStatement.elseBranch);
+                    patch(jumpToEnd, length);
+                }
+            } else if (statement instanceof Statement.While) {
+                whileLoop((Statement.While) statement);
+            } else if (statement instanceof Statement.ClosedFormLoop) {
+                // HotSpot does its own strength reduction, the plain loop is good enough here
+                whileLoop(((Statement.ClosedFormLoop) statement).loop);
+            } else {
+                for (Statement child : ((Statement.Block) statement).statements) {
+                    statement(child);
+                }
+            }
+        }
+
+        void whileLoop(Statement.While loop) {
+            int start = length;
+            int exit = branchIfFalse((Expression.Comparison) loop.condition);
+            statement(loop.body);
+            // if (--fuel > 0) continue; otherwise store the variables and charge the whole allowance
+            op(IINC, 0);
+            u1(fuelLocal());
+            u1(-1);
+            op(ILOAD, 1);
+            u1(fuelLocal());
+            patch(jump(IFGT, -1), start);
+            storeVariables();
+            op(ALOAD_1, 1);
+            op(ILOAD, 1);
+            u1(allowanceLocal());
+            op(INVOKEVIRTUAL, -1);
+            u2(POLL_METHOD);
+            storeAllowance();
+            patch(jump(GOTO, 0), start);
+            patch(exit, length);
+        }
+
+        private void store(int slot, Expression value) {
+            expression(value, value.getSource());
+            op(ISTORE, -1);
+            u1(locals.get(slot));
+        }
+
+        // Compare-and-branch jumping when the comparison does not hold, returns the jump to patch
+        private int branchIfFalse(Expression.Comparison comparison) {
+            expression(comparison.left, null);
+            expression(comparison.right, null);
+            switch (comparison.operator) {
+                case EQUAL:
+                    return jump(IF_ICMPNE, -2);
+                case NOT_EQUAL:
+                    return jump(IF_ICMPEQ, -2);
+                case LESS:
+                    return jump(IF_ICMPGE, -2);
+                case LESS_EQUAL:
+                    return jump(IF_ICMPGT, -2);
+                case GREATER:
+                    return jump(IF_ICMPLE, -2);
+                default:
+                    return jump(IF_ICMPLT, -2);
+            }
+        }
+
+        // Pushes the value of an int expression, context is the source reported on division by zero
+        private void expression(Expression expression, String context) {
+            if (expression instanceof Expression.IntLiteral) {
+                constant(((Expression.IntLiteral) expression).value);
+            } else if (expression instanceof Expression.Variable) {
+                op(ILOAD, 1);
+                u1(locals.get(((Expression.Variable) expression).slot));
+            } else if (expression instanceof Expression.Negate) {
+                expression(((Expression.Negate) expression).operand, context);
+                op(INEG, 0);
+            } else if (expression instanceof Expression.Invariant) {
+                expression(((Expression.Invariant) expression).expression, context);
+            } else {
+                Expression.Binary binary = (Expression.Binary) expression;
+                expression(binary.left, context);
+                expression(binary.right, context);
+                switch (binary.operator) {
+                    case '+':
+                        op(IADD, -1);
+                        break;
+                    case '-':
+                        op(ISUB, -1);
+                        break;
+                    case '*':
+                        op(IMUL, -1);
+                        break;
+                    default:
+                        zeroDivisorCheck(context);
+                        op(binary.operator == '/' ? IDIV : IREM, -1);
+                }
+            }
+        }
+
+        // if (divisor == 0) { store variables; return site } with the operands still on the stack
+        private void zeroDivisorCheck(String context) {
+            divisionContexts.add(context);
+            op(DUP, 1);
+            int skip = jump(IFNE, -1);
+            int depth = stack;
+            storeVariables();
+            constant(divisionContexts.size());
+            op(IRETURN, -1);
+            stack = depth;
+            patch(skip, length);
+        }
+
+        void constant(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                u2(value);
+            } else {
+                int index = integerConstants.indexOf(value);
+                if (index < 0) {
+                    integerConstants.add(value);
+                    index = integerConstants.size() - 1;
+                }
+                op(LDC_W, 1);
+                u2(FIRST_INTEGER_CONSTANT + index);
+            }
+        }
+
+        void op(int opcode, int stackChange) {
+            u1(opcode);
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private int jump(int opcode, int stackChange) {
+            int position = length;
+            op(opcode, stackChange);
+            u2(0);
+            return position;
+        }
+
+        private void patch(int jump, int target) {
+            int offset = target - jump;
+            code[jump + 1] = (byte) (offset >> 8);
+            code[jump + 2] = (byte) offset;
+        }
+
+        private void u1(int value) {
+            if (length + 3 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        // Constant pool layout, integer constants follow the fixed entries
+        private static final int THIS_CLASS = 2;
+        private static final int SUPER_CLASS = 4;
+        private static final int METHOD_NAME = 5;
+        private static final int METHOD_DESCRIPTOR = 6;
+        private static final int CODE_ATTRIBUTE = 7;
+        private static final int POLL_METHOD = 13;
+        private static final int ALLOWANCE_METHOD = 17;
+        private static final int FIRST_INTEGER_CONSTANT = 18;
+
+        // Class file version 49 needs no stack map frames, which keeps the generator small
+        byte[] toClassFile() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+
+            out.writeShort(FIRST_INTEGER_CONSTANT + integerConstants.size());
+            out.writeByte(1);
+            out.writeUTF("utils/JitLoop");
+            out.writeByte(7);
+            out.writeShort(1);
+            out.writeByte(1);
+            out.writeUTF("java/lang/Object");
+            out.writeByte(7);
+            out.writeShort(3);
+            out.writeByte(1);
+            out.writeUTF("run");
+            out.writeByte(1);
+            out.writeUTF(RUN_TYPE.toMethodDescriptorString());
+            out.writeByte(1);
+            out.writeUTF("Code");
+            out.writeByte(1);
+            out.writeUTF("utils/ExecutionBudget");
+            out.writeByte(7);
+            out.writeShort(8);
+            out.writeByte(1);
+            out.writeUTF("poll");
+            out.writeByte(1);
+            out.writeUTF("(I)I");
+            out.writeByte(12);
+            out.writeShort(10);
+            out.writeShort(11);
+            out.writeByte(10);
+            out.writeShort(9);
+            out.writeShort(12);
+            out.writeByte(1);
+            out.writeUTF("allowance");
+            out.writeByte(1);
+            out.writeUTF("()I");
+            out.writeByte(12);
+            out.writeShort(14);
+            out.writeShort(15);
+            out.writeByte(10);
+            out.writeShort(9);
+            out.writeShort(16);
+            for (int value : integerConstants) {
+                out.writeByte(3);
+                out.writeInt(value);
+            }
+
+            out.writeShort(0x0031); // public final super
+            out.writeShort(THIS_CLASS);
+            out.writeShort(SUPER_CLASS);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+
+            out.writeShort(0x0009); // public static
+            out.writeShort(METHOD_NAME);
+            out.writeShort(METHOD_DESCRIPTOR);
+            out.writeShort(1);
+            out.writeShort(CODE_ATTRIBUTE);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(allowanceLocal() + 1);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        }
+    }
+}
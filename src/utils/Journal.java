@@ -0,0 +1,284 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of the variables for --journal. After every command the variables it
+// changed are appended as snapshot entries (see Snapshot). A background thread writes whatever
+// has piled up as one batch and fsyncs it, so many commands share one fsync (group commit) and
+// a crash loses at most the last GROUP_COMMIT_MILLIS of changes. Every batch carries its length
+// and a CRC32, a torn batch at the end is dropped when the journal is replayed on startup.
+// Replaying keeps the last value of each variable; once the journal has grown well beyond the
+// live variables it is rewritten as a single batch.
+public class Journal implements Closeable {
+    static final int MAGIC = 0x4D4B4A31; // "MKJ1"
+
+    // How long the writer waits for more commands to join a batch
+    static final long GROUP_COMMIT_MILLIS = 10;
+
+    // Commands wait while this much is queued and not yet written
+    static final int MAX_PENDING_BYTES = 8 << 20;
+
+    private final Path file;
+    private final JournaledVariableStorage variableStorage;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final DataOutputStream encoder = new DataOutputStream(encoded);
+    private final Thread writer;
+    private FileChannel channel;
+
+    // Guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long committed;
+    private long durable;
+    private boolean closed;
+    private IOException failure;
+
+    private Journal(Path file, JournaledVariableStorage variableStorage) {
+        this.file = file;
+        this.variableStorage = variableStorage;
+        this.writer = new Thread(this::writeBatches, "minikotlin-journal");
+        this.writer.setDaemon(true);
+    }
+
+    // Replays an existing journal into the storage, which should be empty, and opens it for appending
+    public static Journal open(Path file, JournaledVariableStorage variableStorage) throws IOException {
+        Journal journal = new Journal(file, variableStorage);
+        journal.recover();
+        journal.writer.start();
+        return journal;
+    }
+
+    // Number of variables the journal held when it was opened
+    public int getRecoveredCount() {
+        return variableStorage.getVariableCount();
+    }
+
+    // Queues the variables changed since the last commit, they reach the disk with the next batch
+    public void commit() throws IOException {
+        int[] slots = variableStorage.takeDirtySlots();
+        if (slots.length == 0) {
+            return;
+        }
+        encoded.reset();
+        for (int slot : slots) {
+            if (variableStorage.isDefined(slot)) {
+                Snapshot.writeEntry(encoder, variableStorage.nameOf(slot), variableStorage.get(slot));
+            }
+        }
+        synchronized (this) {
+            // Backpressure, a slow disk holds up commands instead of filling the heap
+            while (pending.size() >= MAX_PENDING_BYTES && failure == null && !closed) {
+                waitForWriter();
+            }
+            checkState();
+            encoded.writeTo(pending);
+            committed++;
+            notifyAll();
+        }
+    }
+
+    // Waits until everything committed so far is on disk
+    public synchronized void sync() throws IOException {
+        long target = committed;
+        while (durable < target && failure == null) {
+            waitForWriter();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void writeBatches() {
+        CRC32 crc = new CRC32();
+        while (true) {
+            ByteArrayOutputStream batch;
+            long sequence;
+            boolean closing;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                closing = closed;
+            }
+            if (!closing) {
+                // Let the commands of the next few milliseconds join this batch
+                try {
+                    Thread.sleep(GROUP_COMMIT_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            synchronized (this) {
+                batch = pending;
+                sequence = committed;
+                pending = new ByteArrayOutputStream();
+                notifyAll();
+            }
+            try {
+                byte[] bytes = batch.toByteArray();
+                crc.reset();
+                crc.update(bytes);
+                ByteBuffer header = ByteBuffer.allocate(8).putInt(bytes.length).putInt((int) crc.getValue());
+                header.flip();
+                writeFully(new ByteBuffer[]{header, ByteBuffer.wrap(bytes)});
+                channel.force(false);
+                synchronized (this) {
+                    durable = sequence;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    // Replays the valid batches, cuts off a torn one and compacts a journal full of old values
+    private void recover() throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            rewrite();
+            return;
+        }
+        long records = 0;
+        long validEnd;
+        try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = Snapshot.map(reader);
+            if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("'" + file + "' is not a MiniKotlin journal.");
+            }
+            CRC32 crc = new CRC32();
+            validEnd = buffer.position();
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer batch = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(batch.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                // A batch is checked before it is applied, so a bad one changes nothing
+                try {
+                    ByteBuffer check = batch.duplicate();
+                    while (check.hasRemaining()) {
+                        Snapshot.skipEntry(check);
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    break;
+                }
+                while (batch.hasRemaining()) {
+                    Snapshot.readEntry(batch, variableStorage);
+                    records++;
+                }
+                buffer.position(buffer.position() + length);
+                validEnd = buffer.position();
+            }
+        }
+        variableStorage.takeDirtySlots();
+
+        if (records > 2L * variableStorage.getVariableCount() + 1024) {
+            rewrite();
+            return;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+    }
+
+    // Replaces the journal with one holding just the current variables
+    private void rewrite() throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        Snapshot.writeEntries(new DataOutputStream(entries), variableStorage);
+        byte[] bytes = entries.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        Path temporary = file.toAbsolutePath().resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(12).putInt(MAGIC);
+            if (bytes.length > 0) {
+                header.putInt(bytes.length).putInt((int) crc.getValue());
+            }
+            header.flip();
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(bytes)};
+            while (buffers[1].hasRemaining() || buffers[0].hasRemaining()) {
+                out.write(buffers);
+            }
+            out.force(true);
+        }
+        Snapshot.replace(temporary, file);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private void waitForWriter() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal.");
+        }
+    }
+
+    private void checkState() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("The journal is closed.");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package utils;
+
+import java.util.Arrays;
+
+// A VariableStorage that remembers which slots were written since the Journal last collected
+// them, so a command only journals the variables it changed. Marking a slot costs one array
+// read on every write; a slot written a million times in a loop is journaled once.
+public class JournaledVariableStorage extends VariableStorage {
+    private boolean[] dirty = new boolean[16];
+    private int[] dirtySlots = new int[16];
+    private int dirtyCount;
+
+    @Override
+    public void setInt(int slot, int value) {
+        super.setInt(slot, value);
+        mark(slot);
+    }
+
+    @Override
+    public void set(int slot, Object value) {
+        super.set(slot, value);
+        mark(slot);
+    }
+
+    @Override
+    public void copy(int fromSlot, int toSlot) {
+        super.copy(fromSlot, toSlot);
+        mark(toSlot);
+    }
+
+    // The slots written since the last call, in the order they were first written
+    int[] takeDirtySlots() {
+        int[] slots = Arrays.copyOf(dirtySlots, dirtyCount);
+        for (int slot : slots) {
+            dirty[slot] = false;
+        }
+        dirtyCount = 0;
+        return slots;
+    }
+
+    private void mark(int slot) {
+        if (slot < dirty.length && dirty[slot]) {
+            return;
+        }
+        if (slot >= dirty.length) {
+            dirty = Arrays.copyOf(dirty, Math.max(slot + 1, dirty.length * 2));
+        }
+        if (dirtyCount == dirtySlots.length) {
+            dirtySlots = Arrays.copyOf(dirtySlots, dirtyCount * 2);
+        }
+        dirty[slot] = true;
+        dirtySlots[dirtyCount++] = slot;
+    }
+}
@@ -0,0 +1,117 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class Lexer {
+
+    // Splits MiniKotlin source text into tokens, the last one is always EOF
+    public List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int length = source.length();
+        int position = 0;
+        boolean newlineBefore = false;
+
+        while (position < length) {
+            char c = source.charAt(position);
+
+            // Skip whitespace but remember line breaks, they can separate statements
+            if (Character.isWhitespace(c)) {
+                if (c == '\n') {
+                    newlineBefore = true;
+                }
+                position++;
+                continue;
+            }
+
+            // Skip // comments up to the end of the line
+            if (c == '/' && position + 1 < length && source.charAt(position + 1) == '/') {
+                while (position < length && source.charAt(position) != '\n') {
+                    position++;
+                }
+                continue;
+            }
+
+            int start = position;
+            Token.Type type;
+
+            if (Character.isLetter(c) || c == '_') {
+                while (position < length && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_')) {
+                    position++;
+                }
+                type = Token.Type.IDENTIFIER;
+            } else if (Character.isDigit(c)) {
+                while (position < length && Character.isDigit(source.charAt(position))) {
+                    position++;
+                }
+                type = Token.Type.NUMBER;
+            } else if (c == '"') {
+                int closing = source.indexOf('"', position + 1);
+                if (closing < 0) {
+                    throw new IllegalArgumentException("Syntax error: Unterminated string literal.");
+                }
+                position = closing + 1;
+                type = Token.Type.STRING;
+            } else {
+                type = symbolType(source, position);
+                position += (type == Token.Type.EQUAL || type == Token.Type.NOT_EQUAL
+                        || type == Token.Type.LESS_EQUAL || type == Token.Type.GREATER_EQUAL
+                        || type == Token.Type.DOT_DOT) ? 2 : 1;
+            }
+
+            tokens.add(new Token(type, source.substring(start, position), start, position, newlineBefore));
+            newlineBefore = false;
+        }
+
+        tokens.add(new Token(Token.Type.EOF, "", length, length, newlineBefore));
+        return tokens;
+    }
+
+    // Recognizes operators and punctuation, two character operators take priority
+    private Token.Type symbolType(String source, int position) {
+        char c = source.charAt(position);
+        char next = position + 1 < source.length() ? source.charAt(position + 1) : '\0';
+
+        switch (c) {
+            case '+':
+                return Token.Type.PLUS;
+            case '-':
+                return Token.Type.MINUS;
+            case '*':
+                return Token.Type.STAR;
+            case '/':
+                return Token.Type.SLASH;
+            case '%':
+                return Token.Type.PERCENT;
+            case '=':
+                return next == '=' ? Token.Type.EQUAL : Token.Type.ASSIGN;
+            case '!':
+                if (next == '=') {
+                    return Token.Type.NOT_EQUAL;
+                }
+                break;
+            case '<':
+                return next == '=' ? Token.Type.LESS_EQUAL : Token.Type.LESS;
+            case '>':
+                return next == '=' ? Token.Type.GREATER_EQUAL : Token.Type.GREATER;
+            case '(':
+                return Token.Type.LEFT_PAREN;
+            case ')':
+                return Token.Type.RIGHT_PAREN;
+            case '{':
+                return Token.Type.LEFT_BRACE;
+            case '}':
+                return Token.Type.RIGHT_BRACE;
+            case ';':
+                return Token.Type.SEMICOLON;
+            case ',':
+                return Token.Type.COMMA;
+            case '.':
+                if (next == '.') {
+                    return Token.Type.DOT_DOT;
+                }
+                break;
+        }
+        throw new IllegalArgumentException("Syntax error: Unexpected character '" + c + "'.");
+    }
+}
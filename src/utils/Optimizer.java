@@ -0,0 +1,326 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Optional pass between parsing and execution (-O1). It folds literal sub-expressions,
+// hoists loop invariant sub-expressions and replaces simple counting loops by their closed
+// form. Every rewrite that fires is recorded so it can be reported to the user.
+public class Optimizer {
+    private final List<String> rewrites = new ArrayList<>();
+
+    public Statement optimize(Statement statement) {
+        rewrites.clear();
+        return statement(statement, null, null);
+    }
+
+    // Descriptions of the rewrites applied by the last call to optimize
+    public List<String> getRewrites() {
+        return rewrites;
+    }
+
+    // assigned and hoisted describe the innermost enclosing loop, both null outside of loops
+    private Statement statement(Statement statement, Set<Integer> assigned, List<Expression.Invariant> hoisted) {
+        if (statement instanceof Statement.VarDeclaration) {
+            Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+            return new Statement.VarDeclaration(declaration.getSource(), declaration.name, declaration.slot,
+                    value(declaration.value, assigned, hoisted));
+        }
+        if (statement instanceof Statement.Assignment) {
+            Statement.Assignment assignment = (Statement.Assignment) statement;
+            return new Statement.Assignment(assignment.getSource(), assignment.name, assignment.slot,
+                    value(assignment.value, assigned, hoisted));
+        }
+        if (statement instanceof Statement.Print) {
+            Statement.Print print = (Statement.Print) statement;
+            return new Statement.Print(print.getSource(), value(print.value, assigned, hoisted));
+        }
+        if (statement instanceof Statement.If) {
+            Statement.If ifStatement = (Statement.If) statement;
+            return new Statement.If(ifStatement.getSource(),
+                    value(ifStatement.condition, assigned, hoisted),
+                    statement(ifStatement.thenBranch, assigned, hoisted),
+                    ifStatement.elseBranch == null ? null : statement(ifStatement.elseBranch, assigned, hoisted));
+        }
+        if (statement instanceof Statement.While) {
+            return whileLoop((Statement.While) statement);
+        }
+        if (statement instanceof Statement.Block) {
+            return block((Statement.Block) statement, assigned, hoisted);
+        }
+        return statement;
+    }
+
+    private Statement.Block block(Statement.Block block, Set<Integer> assigned, List<Expression.Invariant> hoisted) {
+        Statement[] statements = new Statement[block.statements.length];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = statement(block.statements[i], assigned, hoisted);
+        }
+        return new Statement.Block(block.getSource(), statements);
+    }
+
+    private Statement whileLoop(Statement.While loop) {
+        // Commands may touch any variable, so loops containing them are only folded
+        Set<Integer> assigned = assignedSlots(loop.body);
+        List<Expression.Invariant> hoisted = assigned == null ? null : new ArrayList<>();
+
+        Expression condition = value(loop.condition, assigned, hoisted);
+        Statement.Block body = block(loop.body, assigned, hoisted);
+        Statement.While optimized = hoisted == null
+                ? new Statement.While(loop.getSource(), condition, body)
+                : new Statement.While(loop.getSource(), condition, body, hoisted.toArray(new Expression.Invariant[0]));
+
+        Statement closedForm = closedForm(optimized, assigned);
+        if (closedForm != null) {
+            rewrites.add("closed form for " + describe(loop));
+            return closedForm;
+        }
+        return optimized;
+    }
+
+    // Folds and then hoists an expression; hoisting only applies inside loops
+    private Expression value(Expression expression, Set<Integer> assigned, List<Expression.Invariant> hoisted) {
+        Expression folded = fold(expression);
+        return hoisted == null ? folded : hoist(folded, assigned, hoisted);
+    }
+
+    private Expression fold(Expression expression) {
+        if (expression instanceof Expression.Negate) {
+            Expression operand = fold(((Expression.Negate) expression).operand);
+            if (operand instanceof Expression.IntLiteral) {
+                return folded(expression, -((Expression.IntLiteral) operand).value);
+            }
+            return new Expression.Negate(expression.getSource(), operand);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            Expression left = fold(binary.left);
+            Expression right = fold(binary.right);
+            if (left instanceof Expression.IntLiteral && right instanceof Expression.IntLiteral) {
+                int a = ((Expression.IntLiteral) left).value;
+                int b = ((Expression.IntLiteral) right).value;
+                switch (binary.operator) {
+                    case '+':
+                        return folded(expression, a + b);
+                    case '-':
+                        return folded(expression, a - b);
+                    case '*':
+                        return folded(expression, a * b);
+                    default:
+                        // Division by a zero literal is left alone so it still fails at run time
+                        if (b != 0) {
+                            return folded(expression, binary.operator == '/' ? a / b : a % b);
+                        }
+                }
+            }
+            return binary(binary, left, right);
+        }
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            return new Expression.Comparison(comparison.getSource(), comparison.operator,
+                    fold(comparison.left), fold(comparison.right));
+        }
+        return expression;
+    }
+
+    private Expression folded(Expression original, int value) {
+        rewrites.add("folded " + original.getSource() + " to " + value);
+        return new Expression.IntLiteral(original.getSource(), value);
+    }
+
+    // Wraps the largest sub-expressions that read no variable assigned in the loop
+    private Expression hoist(Expression expression, Set<Integer> assigned, List<Expression.Invariant> hoisted) {
+        boolean computed = expression instanceof Expression.Binary || expression instanceof Expression.Negate;
+        if (computed && isInvariant(expression, assigned)) {
+            Expression.Invariant invariant = new Expression.Invariant(expression);
+            hoisted.add(invariant);
+            rewrites.add("hoisted loop invariant " + expression.getSource());
+            return invariant;
+        }
+        if (expression instanceof Expression.Negate) {
+            return new Expression.Negate(expression.getSource(),
+                    hoist(((Expression.Negate) expression).operand, assigned, hoisted));
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            return binary(binary, hoist(binary.left, assigned, hoisted), hoist(binary.right, assigned, hoisted));
+        }
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            return new Expression.Comparison(comparison.getSource(), comparison.operator,
+                    hoist(comparison.left, assigned, hoisted), hoist(comparison.right, assigned, hoisted));
+        }
+        return expression;
+    }
+
+    private boolean isInvariant(Expression expression, Set<Integer> assigned) {
+        if (expression instanceof Expression.IntLiteral) {
+            return true;
+        }
+        if (expression instanceof Expression.Variable) {
+            return !assigned.contains(((Expression.Variable) expression).slot);
+        }
+        if (expression instanceof Expression.Negate) {
+            return isInvariant(((Expression.Negate) expression).operand, assigned);
+        }
+        if (expression instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary) expression;
+            return isInvariant(binary.left, assigned) && isInvariant(binary.right, assigned);
+        }
+        return false;
+    }
+
+    // Recognizes while(i < n){ s = s + <term>; ...; i = i + <step>; } where every statement is
+    // either the single counter step or an accumulation of a literal, an invariant variable or i
+    private Statement closedForm(Statement.While loop, Set<Integer> assigned) {
+        if (assigned == null || !(loop.condition instanceof Expression.Comparison)) {
+            return null;
+        }
+        Expression.Comparison condition = (Expression.Comparison) loop.condition;
+        Expression counter;
+        Expression limit;
+        boolean inclusive;
+        switch (condition.operator) {
+            case LESS:
+            case LESS_EQUAL:
+                counter = condition.left;
+                limit = condition.right;
+                inclusive = condition.operator == Token.Type.LESS_EQUAL;
+                break;
+            case GREATER:
+            case GREATER_EQUAL:
+                counter = condition.right;
+                limit = condition.left;
+                inclusive = condition.operator == Token.Type.GREATER_EQUAL;
+                break;
+            default:
+                return null;
+        }
+        if (!(counter instanceof Expression.Variable) || !isPlainInvariant(limit, assigned)) {
+            return null;
+        }
+        int counterSlot = ((Expression.Variable) counter).slot;
+
+        int step = 0;
+        List<Integer> accumulators = new ArrayList<>();
+        List<Expression> terms = new ArrayList<>();
+        List<Boolean> afterStep = new ArrayList<>();
+        for (Statement statement : loop.body.statements) {
+            if (!(statement instanceof Statement.Assignment)) {
+                return null;
+            }
+            Statement.Assignment assignment = (Statement.Assignment) statement;
+            Expression term = incrementOf(assignment);
+            if (term == null) {
+                return null;
+            }
+            if (assignment.slot == counterSlot) {
+                if (step != 0 || !(term instanceof Expression.IntLiteral) || ((Expression.IntLiteral) term).value <= 0) {
+                    return null;
+                }
+                step = ((Expression.IntLiteral) term).value;
+            } else {
+                boolean readsCounter = term instanceof Expression.Variable && ((Expression.Variable) term).slot == counterSlot;
+                if (accumulators.contains(assignment.slot) || (!readsCounter && !isPlainInvariant(term, assigned))) {
+                    return null;
+                }
+                accumulators.add(assignment.slot);
+                terms.add(term);
+                afterStep.add(step != 0);
+            }
+        }
+        if (step == 0) {
+            return null;
+        }
+
+        boolean[] after = new boolean[afterStep.size()];
+        for (int i = 0; i < after.length; i++) {
+            after[i] = afterStep.get(i);
+        }
+        return new Statement.ClosedFormLoop(loop, counterSlot, limit, inclusive, step,
+                accumulators.stream().mapToInt(Integer::intValue).toArray(), terms.toArray(new Expression[0]), after);
+    }
+
+    // For x = x + e or x = e + x returns e, otherwise null
+    private Expression incrementOf(Statement.Assignment assignment) {
+        if (!(assignment.value instanceof Expression.Add)) {
+            return null;
+        }
+        Expression.Binary add = (Expression.Binary) assignment.value;
+        if (isVariable(add.left, assignment.slot) && !isVariable(add.right, assignment.slot)) {
+            return add.right;
+        }
+        if (isVariable(add.right, assignment.slot) && !isVariable(add.left, assignment.slot)) {
+            return add.left;
+        }
+        return null;
+    }
+
+    private boolean isVariable(Expression expression, int slot) {
+        return expression instanceof Expression.Variable && ((Expression.Variable) expression).slot == slot;
+    }
+
+    // A literal or a variable the loop never assigns
+    private boolean isPlainInvariant(Expression expression, Set<Integer> assigned) {
+        return expression instanceof Expression.IntLiteral
+                || (expression instanceof Expression.Variable && !assigned.contains(((Expression.Variable) expression).slot));
+    }
+
+    // Slots written anywhere inside a statement, null when it contains a command
+    private Set<Integer> assignedSlots(Statement statement) {
+        Set<Integer> slots = new HashSet<>();
+        return collectAssigned(statement, slots) ? slots : null;
+    }
+
+    private boolean collectAssigned(Statement statement, Set<Integer> slots) {
+        if (statement instanceof Statement.VarDeclaration) {
+            slots.add(((Statement.VarDeclaration) statement).slot);
+            return true;
+        }
+        if (statement instanceof Statement.Assignment) {
+            slots.add(((Statement.Assignment) statement).slot);
+            return true;
+        }
+        if (statement instanceof Statement.Print) {
+            return true;
+        }
+        if (statement instanceof Statement.If) {
+            Statement.If ifStatement = (Statement.If) statement;
+            return collectAssigned(ifStatement.thenBranch, slots)
+                    && (ifStatement.elseBranch == null || collectAssigned(ifStatement.elseBranch, slots));
+        }
+        if (statement instanceof Statement.While) {
+            return collectAssigned(((Statement.While) statement).body, slots);
+        }
+        if (statement instanceof Statement.Block) {
+            for (Statement child : ((Statement.Block) statement).statements) {
+                if (!collectAssigned(child, slots)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Expression binary(Expression.Binary original, Expression left, Expression right) {
+        switch (original.operator) {
+            case '+':
+                return new Expression.Add(original.getSource(), left, right);
+            case '-':
+                return new Expression.Subtract(original.getSource(), left, right);
+            case '*':
+                return new Expression.Multiply(original.getSource(), left, right);
+            case '/':
+                return new Expression.Divide(original.getSource(), left, right);
+            default:
+                return new Expression.Remainder(original.getSource(), left, right);
+        }
+    }
+
+    private String describe(Statement.While loop) {
+        return "while(" + loop.condition.getSource() + ")";
+    }
+}
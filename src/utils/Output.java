@@ -0,0 +1,75 @@
+package utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Where the interpreter writes its results. Everything goes through one large buffer that is
+// flushed explicitly (before each prompt, at the end of a script and on exit) instead of
+// after every line like System.out. The standard output is written by a background thread
+// (see AsyncOutput), line by line when it is a terminal.
+public class Output implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+
+    public Output(OutputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Output(OutputStream stream, int bufferSize) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), bufferSize);
+    }
+
+    // For subclasses that do their own writing, they override print, both println and flush
+    protected Output() {
+        this.writer = null;
+    }
+
+    // Asynchronous output to the process' standard output, bypassing System.out and its locking.
+    // Close it when done, that stops its writer thread.
+    public static Output standard() {
+        return new AsyncOutput(new FileOutputStream(FileDescriptor.out).getChannel(), Charset.defaultCharset(),
+                AsyncOutput.DEFAULT_RING_CHARS, System.console() != null);
+    }
+
+    public void print(String text) {
+        try {
+            writer.write(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void println(Object value) {
+        print(String.valueOf(value));
+        print(LINE_SEPARATOR);
+    }
+
+    public void println(int value) {
+        print(Integer.toString(value));
+        print(LINE_SEPARATOR);
+    }
+
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Flushes, the stream stays open for whoever created it
+    @Override
+    public void close() {
+        flush();
+    }
+}
@@ -0,0 +1,342 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Runs parallel for(i in a..b) reduce(sum s, ...){ ... } on the common fork/join pool. The range
+// is split into chunks, every chunk runs the body on its own copy of the variables with the
+// reduction variables set to their identity, and the partial results are merged into the real
+// variables at the end. The body may only write reduction variables and variables that do not
+// exist outside the loop, so the chunks cannot see each other.
+public class ParallelLoop {
+    // Chunks are at least this long, copying the variables for fewer iterations does not pay off
+    private static final int MIN_CHUNK = 256;
+    // Chunks per worker thread, spare chunks let the pool balance uneven bodies
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    public enum Reduction {
+        SUM(0), COUNT(0), MIN(Integer.MAX_VALUE), MAX(Integer.MIN_VALUE);
+
+        final int identity;
+
+        Reduction(int identity) {
+            this.identity = identity;
+        }
+
+        // The reduction with the given name as written in reduce(...), null when there is none
+        static Reduction named(String name) {
+            for (Reduction reduction : values()) {
+                if (reduction.name().toLowerCase().equals(name)) {
+                    return reduction;
+                }
+            }
+            return null;
+        }
+
+        // Sums wrap around like the sequential loop would
+        int combine(int a, int b) {
+            switch (this) {
+                case MIN:
+                    return Math.min(a, b);
+                case MAX:
+                    return Math.max(a, b);
+                default:
+                    return a + b;
+            }
+        }
+    }
+
+    // Checks the body of a parsed loop and returns the slots it writes besides the reductions.
+    // Each reduction variable may only be updated in its own form (s = s + <value>, c = c + 1,
+    // m = min(m, <value>), m = max(m, <value>)) and read nowhere else.
+    static int[] checkBody(Statement.Block body, String index, int indexSlot,
+                           Reduction[] reductions, int[] reductionSlots, VariableStorage variableStorage) {
+        Set<Integer> reductionSet = new LinkedHashSet<>();
+        for (int i = 0; i < reductionSlots.length; i++) {
+            String name = variableStorage.nameOf(reductionSlots[i]);
+            if (reductionSlots[i] == indexSlot) {
+                throw invalid("the loop variable '" + index + "' cannot be a reduction variable.");
+            }
+            if (!reductionSet.add(reductionSlots[i])) {
+                throw invalid("'" + name + "' is listed as a reduction variable twice.");
+            }
+        }
+        Set<Integer> written = new LinkedHashSet<>();
+        new BodyChecker(index, indexSlot, reductions, reductionSlots, reductionSet, variableStorage, written).statement(body);
+        int[] slots = new int[written.size()];
+        int i = 0;
+        for (int slot : written) {
+            slots[i++] = slot;
+        }
+        return slots;
+    }
+
+    // Runs the loop against the given variables, which are only written once all chunks are done.
+    // Every chunk polls the budget of the command, so a cancel stops all of them.
+    static void run(Statement.ParallelFor loop, VariableStorage variableStorage, ExecutionBudget budget) {
+        for (int slot : loop.localSlots) {
+            if (variableStorage.isDefined(slot)) {
+                throw invalid("it writes the shared variable '" + variableStorage.nameOf(slot)
+                        + "', only reduction variables may be written.");
+            }
+        }
+        for (int slot : loop.reductionSlots) {
+            if (variableStorage.typeOf(slot) != VariableStorage.INT) {
+                throw invalid("the reduction variable '" + variableStorage.nameOf(slot) + "' must hold an integer.");
+            }
+        }
+        int from = bound(loop.from, variableStorage);
+        int to = bound(loop.to, variableStorage);
+        if (from > to) {
+            return;
+        }
+
+        long count = (long) to - from + 1;
+        long chunk = Math.max(MIN_CHUNK, count / ((long) ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+        // Chunks copy this snapshot, so a shared storage is only read once and consistently
+        VariableStorage snapshot = variableStorage.localCopy();
+        int[] partials;
+        try {
+            partials = ForkJoinPool.commonPool().invoke(new Chunk(loop, snapshot, budget, from, to, chunk));
+        } catch (RuntimeException e) {
+            throw unwrap(e);
+        } finally {
+            InterpreterMetrics.global().recordLoopIterations(count);
+        }
+
+        for (int i = 0; i < partials.length; i++) {
+            int slot = loop.reductionSlots[i];
+            Reduction reduction = loop.reductions[i];
+            int partial = partials[i];
+            variableStorage.atomically(slot,
+                    () -> variableStorage.setInt(slot, reduction.combine(variableStorage.getInt(slot), partial)));
+        }
+    }
+
+    private static int bound(Expression expression, VariableStorage variableStorage) {
+        try {
+            return expression.evaluateInt(variableStorage);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid expression: " + expression.getSource());
+        }
+    }
+
+    // Exceptions thrown in another worker come back wrapped in a copy of themselves
+    private static RuntimeException unwrap(RuntimeException e) {
+        Throwable cause = e.getCause();
+        return cause != null && cause.getClass() == e.getClass() ? (RuntimeException) cause : e;
+    }
+
+    private static IllegalArgumentException invalid(String message) {
+        return new IllegalArgumentException("Invalid parallel loop: " + message);
+    }
+
+    // Splits its part of the range in two until it is short enough, then runs it
+    private static final class Chunk extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+        private final Statement.ParallelFor loop;
+        private final VariableStorage snapshot;
+        private final ExecutionBudget budget;
+        private final long from;
+        private final long to;
+        private final long chunk;
+
+        Chunk(Statement.ParallelFor loop, VariableStorage snapshot, ExecutionBudget budget, long from, long to, long chunk) {
+            this.loop = loop;
+            this.snapshot = snapshot;
+            this.budget = budget;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from + 1 <= chunk) {
+                return runChunk();
+            }
+            long middle = from + (to - from) / 2;
+            Chunk left = new Chunk(loop, snapshot, budget, from, middle, chunk);
+            Chunk right = new Chunk(loop, snapshot, budget, middle + 1, to, chunk);
+            left.fork();
+            int[] results = right.compute();
+            int[] leftResults = left.join();
+            for (int i = 0; i < results.length; i++) {
+                results[i] = loop.reductions[i].combine(leftResults[i], results[i]);
+            }
+            return results;
+        }
+
+        private int[] runChunk() {
+            VariableStorage local = snapshot.localCopy();
+            int[] reductionSlots = loop.reductionSlots;
+            for (int i = 0; i < reductionSlots.length; i++) {
+                local.setInt(reductionSlots[i], loop.reductions[i].identity);
+            }
+            // The body was checked to contain neither prints nor commands, so no output is needed.
+            // Compiled loops would share state between threads, the body stays interpreted.
+            Executor executor = new Executor(local, null, command -> {
+                throw new IllegalStateException("Command in a parallel loop: " + command);
+            });
+            executor.setBudget(budget);
+            int indexSlot = loop.indexSlot;
+            Statement.Block body = loop.body;
+            int allowance = budget.allowance();
+            int countdown = allowance;
+            for (long i = from; i <= to; i++) {
+                local.setInt(indexSlot, (int) i);
+                executor.execute(body);
+                if (--countdown == 0) {
+                    allowance = budget.poll(allowance);
+                    countdown = allowance;
+                }
+            }
+            budget.poll(allowance - countdown);
+
+            int[] results = new int[reductionSlots.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = local.getInt(reductionSlots[i]);
+            }
+            return results;
+        }
+    }
+
+    private static final class BodyChecker {
+        private final String index;
+        private final int indexSlot;
+        private final Reduction[] reductions;
+        private final int[] reductionSlots;
+        private final Set<Integer> reductionSet;
+        private final VariableStorage variableStorage;
+        private final Set<Integer> written;
+
+        BodyChecker(String index, int indexSlot, Reduction[] reductions, int[] reductionSlots,
+                    Set<Integer> reductionSet, VariableStorage variableStorage, Set<Integer> written) {
+            this.index = index;
+            this.indexSlot = indexSlot;
+            this.reductions = reductions;
+            this.reductionSlots = reductionSlots;
+            this.reductionSet = reductionSet;
+            this.variableStorage = variableStorage;
+            this.written = written;
+        }
+
+        void statement(Statement statement) {
+            if (statement instanceof Statement.VarDeclaration) {
+                Statement.VarDeclaration declaration = (Statement.VarDeclaration) statement;
+                write(declaration.slot, declaration.value);
+            } else if (statement instanceof Statement.Assignment) {
+                Statement.Assignment assignment = (Statement.Assignment) statement;
+                write(assignment.slot, assignment.value);
+            } else if (statement instanceof Statement.If) {
+                Statement.If ifStatement = (Statement.If) statement;
+                read(ifStatement.condition);
+                statement(ifStatement.thenBranch);
+                if (ifStatement.elseBranch != null) {
+                    statement(ifStatement.elseBranch);
+                }
+            } else if (statement instanceof Statement.While) {
+                Statement.While loop = (Statement.While) statement;
+                read(loop.condition);
+                statement(loop.body);
+            } else if (statement instanceof Statement.Block) {
+                for (Statement child : ((Statement.Block) statement).statements) {
+                    statement(child);
+                }
+            } else if (statement instanceof Statement.Print) {
+                throw invalid("print is not allowed in the body, the iterations run in no particular order.");
+            } else if (statement instanceof Statement.ParallelFor) {
+                throw invalid("parallel loops cannot be nested.");
+            } else {
+                throw invalid("'" + statement.getSource() + "' is not allowed in the body.");
+            }
+        }
+
+        private void write(int slot, Expression value) {
+            if (slot == indexSlot) {
+                throw invalid("the loop variable '" + index + "' cannot be assigned.");
+            }
+            for (int i = 0; i < reductionSlots.length; i++) {
+                if (reductionSlots[i] == slot) {
+                    update(reductions[i], slot, value);
+                    return;
+                }
+            }
+            read(value);
+            written.add(slot);
+        }
+
+        // The value of a reduction update must combine the variable itself with a term that
+        // does not read any reduction variable
+        private void update(Reduction reduction, int slot, Expression value) {
+            List<Expression> operands = new ArrayList<>();
+            if (reduction == Reduction.SUM || reduction == Reduction.COUNT) {
+                if (value instanceof Expression.Add) {
+                    operands.addAll(Arrays.asList(((Expression.Add) value).left, ((Expression.Add) value).right));
+                }
+            } else if (value instanceof Expression.Call) {
+                Expression.Call call = (Expression.Call) value;
+                if (call.function.name.equals(reduction.name().toLowerCase())) {
+                    operands.addAll(Arrays.asList(call.arguments));
+                }
+            }
+
+            Expression term = null;
+            if (operands.size() == 2 && isVariable(operands.get(0), slot)) {
+                term = operands.get(1);
+            } else if (operands.size() == 2 && isVariable(operands.get(1), slot)) {
+                term = operands.get(0);
+            }
+            boolean countsOne = term instanceof Expression.IntLiteral && ((Expression.IntLiteral) term).value == 1;
+            if (term == null || (reduction == Reduction.COUNT && !countsOne)) {
+                String name = variableStorage.nameOf(slot);
+                throw invalid("the " + reduction.name().toLowerCase() + " variable '" + name
+                        + "' can only be updated as " + name + " = " + form(reduction, name) + ".");
+            }
+            read(term);
+        }
+
+        private static String form(Reduction reduction, String name) {
+            switch (reduction) {
+                case SUM:
+                    return name + " + <value>";
+                case COUNT:
+                    return name + " + 1";
+                default:
+                    return reduction.name().toLowerCase() + "(" + name + ", <value>)";
+            }
+        }
+
+        private static boolean isVariable(Expression expression, int slot) {
+            return expression instanceof Expression.Variable && ((Expression.Variable) expression).slot == slot;
+        }
+
+        // Reduction variables hold partial results inside the loop, so reading them is rejected
+        private void read(Expression expression) {
+            if (expression instanceof Expression.Variable) {
+                int slot = ((Expression.Variable) expression).slot;
+                if (reductionSet.contains(slot)) {
+                    throw invalid("the reduction variable '" + variableStorage.nameOf(slot)
+                            + "' can only be read by its own update.");
+                }
+            } else if (expression instanceof Expression.Negate) {
+                read(((Expression.Negate) expression).operand);
+            } else if (expression instanceof Expression.Binary) {
+                read(((Expression.Binary) expression).left);
+                read(((Expression.Binary) expression).right);
+            } else if (expression instanceof Expression.Comparison) {
+                read(((Expression.Comparison) expression).left);
+                read(((Expression.Comparison) expression).right);
+            } else if (expression instanceof Expression.Call) {
+                for (Expression argument : ((Expression.Call) expression).arguments) {
+                    read(argument);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class Parser {
+    private final Lexer lexer = new Lexer();
+    private final VariableStorage variableStorage;
+
+    private String source;
+    private List<Token> tokens;
+    private int current;
+    // Names the input assigns somewhere, reading them reserves their slot up front
+    private final Set<String> assignedNames = new HashSet<>();
+
+    // Variable names are resolved to slots of this storage while parsing
+    public Parser(VariableStorage variableStorage) {
+        this.variableStorage = variableStorage;
+    }
+
+    // Parses one or more statements into a statement tree
+    public Statement parse(String input) {
+        begin(input);
+        List<Statement> statements = parseStatements(Token.Type.EOF);
+        if (statements.size() == 1) {
+            return statements.get(0);
+        }
+        return new Statement.Block(input, statements.toArray(new Statement[0]));
+    }
+
+    // Parses a standalone value expression such as "x + 1"
+    public Expression parseExpression(String input) {
+        begin(input);
+        Expression expression = expression();
+        expect(Token.Type.EOF);
+        return expression;
+    }
+
+    // Parses a standalone comparison such as "x < 10"
+    public Expression parseCondition(String input) {
+        begin(input);
+        Expression condition = condition();
+        expect(Token.Type.EOF);
+        return condition;
+    }
+
+    private void begin(String input) {
+        this.source = input;
+        this.tokens = lexer.tokenize(input);
+        this.current = 0;
+        assignedNames.clear();
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            if (tokens.get(i).getType() == Token.Type.IDENTIFIER && tokens.get(i + 1).getType() == Token.Type.ASSIGN) {
+                assignedNames.add(tokens.get(i).getText());
+            }
+        }
+    }
+
+    // Statements are separated by ';' or line breaks, empty statements are allowed
+    private List<Statement> parseStatements(Token.Type terminator) {
+        List<Statement> statements = new ArrayList<>();
+        while (!check(terminator)) {
+            if (match(Token.Type.SEMICOLON)) {
+                continue;
+            }
+            statements.add(statement());
+            if (!check(terminator) && !check(Token.Type.SEMICOLON) && !peek().isNewlineBefore()) {
+                throw error("Expected ';' before " + peek());
+            }
+        }
+        return statements;
+    }
+
+    private Statement statement() {
+        Token start = peek();
+
+        if (start.is("var")) {
+            advance();
+            String name = expect(Token.Type.IDENTIFIER).getText();
+            expect(Token.Type.ASSIGN);
+            Expression value = expression();
+            return new Statement.VarDeclaration(textFrom(start), name, variableStorage.slotOf(name), value);
+        }
+        if (start.is("print")) {
+            advance();
+            expect(Token.Type.LEFT_PAREN);
+            Expression value = expression();
+            expect(Token.Type.RIGHT_PAREN);
+            return new Statement.Print(textFrom(start), value);
+        }
+        if (start.is("while")) {
+            advance();
+            expect(Token.Type.LEFT_PAREN);
+            Expression condition = condition();
+            expect(Token.Type.RIGHT_PAREN);
+            Statement.Block body = block();
+            return new Statement.While(textFrom(start), condition, body);
+        }
+        if (start.is("if")) {
+            return ifStatement();
+        }
+        if (start.is("parallel")) {
+            return parallelFor();
+        }
+        if (start.getType() == Token.Type.IDENTIFIER) {
+            advance();
+            if (match(Token.Type.ASSIGN)) {
+                Expression value = expression();
+                String name = start.getText();
+                return new Statement.Assignment(textFrom(start), name, variableStorage.slotOf(name), value);
+            }
+            // Algorithm calls and keywords like list or help are run as plain commands
+            if (check(Token.Type.LEFT_PAREN)) {
+                skipParentheses();
+            }
+            return new Statement.Command(textFrom(start));
+        }
+        throw error("Unexpected " + start);
+    }
+
+    private Statement ifStatement() {
+        Token start = advance();
+        expect(Token.Type.LEFT_PAREN);
+        Expression condition = condition();
+        expect(Token.Type.RIGHT_PAREN);
+        Statement thenBranch = block();
+        Statement elseBranch = null;
+        if (peek().is("else")) {
+            advance();
+            elseBranch = peek().is("if") ? ifStatement() : block();
+        }
+        return new Statement.If(textFrom(start), condition, thenBranch, elseBranch);
+    }
+
+    // parallel for(<index> in <from>..<to>) reduce(<kind> <name>, ...){ ... }, reduce is optional
+    private Statement parallelFor() {
+        Token start = advance();
+        if (!peek().is("for")) {
+            throw error("Expected 'for' but found " + peek());
+        }
+        advance();
+        expect(Token.Type.LEFT_PAREN);
+        String index = expect(Token.Type.IDENTIFIER).getText();
+        if (!peek().is("in")) {
+            throw error("Expected 'in' but found " + peek());
+        }
+        advance();
+        Expression from = expression();
+        expect(Token.Type.DOT_DOT);
+        Expression to = expression();
+        expect(Token.Type.RIGHT_PAREN);
+
+        List<ParallelLoop.Reduction> reductions = new ArrayList<>();
+        List<Integer> reductionSlots = new ArrayList<>();
+        if (peek().is("reduce")) {
+            advance();
+            expect(Token.Type.LEFT_PAREN);
+            do {
+                Token kind = expect(Token.Type.IDENTIFIER);
+                ParallelLoop.Reduction reduction = ParallelLoop.Reduction.named(kind.getText());
+                if (reduction == null) {
+                    throw error("Unknown reduction " + kind + ", expected sum, min, max or count");
+                }
+                reductions.add(reduction);
+                reductionSlots.add(variableStorage.slotOf(expect(Token.Type.IDENTIFIER).getText()));
+            } while (match(Token.Type.COMMA));
+            expect(Token.Type.RIGHT_PAREN);
+        }
+        Statement.Block body = block();
+
+        ParallelLoop.Reduction[] kinds = reductions.toArray(new ParallelLoop.Reduction[0]);
+        int[] slots = reductionSlots.stream().mapToInt(Integer::intValue).toArray();
+        int indexSlot = variableStorage.slotOf(index);
+        int[] localSlots = ParallelLoop.checkBody(body, index, indexSlot, kinds, slots, variableStorage);
+        return new Statement.ParallelFor(textFrom(start), index, indexSlot, from, to, kinds, slots, localSlots, body);
+    }
+
+    private Statement.Block block() {
+        expect(Token.Type.LEFT_BRACE);
+        int bodyStart = previous().getEnd();
+        List<Statement> statements = parseStatements(Token.Type.RIGHT_BRACE);
+        String body = source.substring(bodyStart, peek().getStart()).trim();
+        expect(Token.Type.RIGHT_BRACE);
+        return new Statement.Block(body, statements.toArray(new Statement[0]));
+    }
+
+    // Arithmetic with the usual precedence: unary minus, then * / %, then + -
+    private Expression expression() {
+        Token start = peek();
+        Expression left = term();
+        while (check(Token.Type.PLUS) || check(Token.Type.MINUS)) {
+            Token.Type operator = advance().getType();
+            Expression right = term();
+            left = operator == Token.Type.PLUS
+                    ? new Expression.Add(textFrom(start), left, right)
+                    : new Expression.Subtract(textFrom(start), left, right);
+        }
+        return left;
+    }
+
+    private Expression term() {
+        Token start = peek();
+        Expression left = unary();
+        while (check(Token.Type.STAR) || check(Token.Type.SLASH) || check(Token.Type.PERCENT)) {
+            Token.Type operator = advance().getType();
+            Expression right = unary();
+            if (operator == Token.Type.STAR) {
+                left = new Expression.Multiply(textFrom(start), left, right);
+            } else if (operator == Token.Type.SLASH) {
+                left = new Expression.Divide(textFrom(start), left, right);
+            } else {
+                left = new Expression.Remainder(textFrom(start), left, right);
+            }
+        }
+        return left;
+    }
+
+    private Expression unary() {
+        Token start = peek();
+        if (!match(Token.Type.MINUS)) {
+            return primary();
+        }
+        // A minus directly before a number is part of the literal, so -2147483648 still parses
+        if (check(Token.Type.NUMBER)) {
+            Token number = advance();
+            return new Expression.IntLiteral(textFrom(start), parseInt("-" + number.getText()));
+        }
+        Expression operand = unary();
+        return new Expression.Negate(textFrom(start), operand);
+    }
+
+    // Only names that exist or that this input assigns get a slot, see Expression.UnresolvedVariable
+    private Expression variable(String name) {
+        if (variableStorage.findSlot(name) < 0 && !assignedNames.contains(name)) {
+            return new Expression.UnresolvedVariable(name);
+        }
+        return new Expression.Variable(name, variableStorage.slotOf(name));
+    }
+
+    private Expression primary() {
+        Token token = advance();
+        switch (token.getType()) {
+            case NUMBER:
+                return new Expression.IntLiteral(token.getText(), parseInt(token.getText()));
+            case IDENTIFIER:
+                if (check(Token.Type.LEFT_PAREN)) {
+                    return call(token);
+                }
+                return variable(token.getText());
+            case STRING:
+                String text = token.getText();
+                return new Expression.StringLiteral(text, text.substring(1, text.length() - 1));
+            case LEFT_PAREN:
+                Expression inner = expression();
+                expect(Token.Type.RIGHT_PAREN);
+                return inner;
+            default:
+                throw error("Invalid operand: " + token.getText());
+        }
+    }
+
+    // <function>(<argument>, ...), one of the built-in int functions
+    private Expression call(Token name) {
+        Expression.Call.Function function = Expression.Call.Function.named(name.getText());
+        if (function == null) {
+            throw error("Unknown function: " + name.getText());
+        }
+        expect(Token.Type.LEFT_PAREN);
+        List<Expression> arguments = new ArrayList<>();
+        do {
+            arguments.add(expression());
+        } while (match(Token.Type.COMMA));
+        expect(Token.Type.RIGHT_PAREN);
+        if (arguments.size() != function.arity) {
+            throw error(name.getText() + " takes " + function.arity + " argument" + (function.arity == 1 ? "" : "s"));
+        }
+        return new Expression.Call(textFrom(name), function, arguments.toArray(new Expression[0]));
+    }
+
+    // <expression> <comparison> <expression>
+    private Expression condition() {
+        Token start = peek();
+        Expression left = expression();
+        Token operator = advance();
+        switch (operator.getType()) {
+            case EQUAL:
+            case NOT_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                Expression right = expression();
+                return new Expression.Comparison(textFrom(start), operator.getType(), left, right);
+            default:
+                throw error("Invalid comparison expression: " + textFrom(start));
+        }
+    }
+
+    private int parseInt(String digits) {
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number: " + digits);
+        }
+    }
+
+    // Skips a balanced (...) group, used for commands the parser hands back as text
+    private void skipParentheses() {
+        int depth = 0;
+        do {
+            Token token = advance();
+            if (token.getType() == Token.Type.LEFT_PAREN) {
+                depth++;
+            } else if (token.getType() == Token.Type.RIGHT_PAREN) {
+                depth--;
+            } else if (token.getType() == Token.Type.EOF) {
+                throw error("Expected ')'");
+            }
+        } while (depth > 0);
+    }
+
+    private String textFrom(Token start) {
+        return source.substring(start.getStart(), previous().getEnd());
+    }
+
+    private Token peek() {
+        return tokens.get(current);
+    }
+
+    private Token previous() {
+        return tokens.get(current - 1);
+    }
+
+    private Token advance() {
+        Token token = tokens.get(current);
+        if (token.getType() != Token.Type.EOF) {
+            current++;
+        }
+        return token;
+    }
+
+    private boolean check(Token.Type type) {
+        return peek().getType() == type;
+    }
+
+    private boolean match(Token.Type type) {
+        if (check(type)) {
+            advance();
+            return true;
+        }
+        return false;
+    }
+
+    private Token expect(Token.Type type) {
+        if (!check(type)) {
+            throw error("Expected " + type.name().toLowerCase().replace('_', ' ') + " but found " + peek());
+        }
+        return advance();
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Syntax error: " + message);
+    }
+}
@@ -0,0 +1,291 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Answers primality queries from a shared sieve of Eratosthenes. The sieve keeps odd numbers
+// only, one bit each in a long[], and grows lazily segment by segment as larger numbers are
+// asked for. Numbers beyond the sieve are tested with a Miller-Rabin test whose bases are
+// deterministic for every 64-bit input. Range queries sieve their own segments in parallel.
+public class PrimeSieve {
+    // Lookups up to this bound grow the sieve, larger numbers go to Miller-Rabin
+    static final int LOOKUP_LIMIT = 1 << 24;
+
+    // The sieve never grows past this, which bounds range queries to MAX_LIMIT squared
+    static final int MAX_LIMIT = 1 << 28;
+
+    private static final int INITIAL_LIMIT = 1 << 16;
+
+    // Numbers per segment of a range query, as bits this fits in the L2 cache
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    // primesIn refuses wider ranges, the answer would be too large to print
+    static final long MAX_LISTED_RANGE = 10_000_000;
+
+    // Bases that make Miller-Rabin exact for all n < 2^64
+    private static final long[] WITNESSES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+
+    private static final PrimeSieve SHARED = new PrimeSieve();
+
+    // Immutable once published, growth swaps in a new table
+    private static final class Table {
+        final long[] composite; // bit i is set when 2i + 1 is composite
+        final int limit;        // covers every n < limit
+
+        Table(long[] composite, int limit) {
+            this.composite = composite;
+            this.limit = limit;
+        }
+    }
+
+    private volatile Table table;
+
+    public PrimeSieve() {
+        table = sieve(new Table(new long[0], 1), INITIAL_LIMIT);
+    }
+
+    // The sieve shared by all sessions in this JVM
+    public static PrimeSieve shared() {
+        return SHARED;
+    }
+
+    public boolean isPrime(long n) {
+        if (n < 2) return false;
+        if (n < 4) return true;
+        if ((n & 1) == 0) return false;
+
+        Table current = table;
+        if (n >= current.limit) {
+            if (n >= LOOKUP_LIMIT) {
+                return millerRabin(n);
+            }
+            current = ensure((int) n + 1);
+        }
+        return !isComposite(current.composite, (int) n);
+    }
+
+    // Number of primes p with from <= p <= to
+    public long count(long from, long to) {
+        long[] bounds = checkRange(from, to);
+        if (bounds == null) return 0;
+        long low = bounds[0], high = bounds[1];
+        if ((high - low) / SEGMENT_SIZE >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range is too wide.");
+        }
+
+        int segments = (int) ((high - low) / SEGMENT_SIZE + 1);
+        long[] basePrimes = basePrimes(high);
+        return IntStream.range(0, segments).parallel().mapToLong(segment -> {
+            long start = low + (long) segment * SEGMENT_SIZE;
+            long end = Math.min(high, start + SEGMENT_SIZE - 1);
+            return countSegment(start, end, basePrimes);
+        }).sum();
+    }
+
+    // All primes p with from <= p <= to, in ascending order
+    public long[] list(long from, long to) {
+        long[] bounds = checkRange(from, to);
+        if (bounds == null) return new long[0];
+        long low = bounds[0], high = bounds[1];
+        if (high - low >= MAX_LISTED_RANGE) {
+            throw new IllegalArgumentException("Range is wider than " + MAX_LISTED_RANGE + ", use primeCount.");
+        }
+
+        int segments = (int) ((high - low) / SEGMENT_SIZE + 1);
+        long[] basePrimes = basePrimes(high);
+        long[][] parts = IntStream.range(0, segments).parallel().mapToObj(segment -> {
+            long start = low + (long) segment * SEGMENT_SIZE;
+            long end = Math.min(high, start + SEGMENT_SIZE - 1);
+            return listSegment(start, end, basePrimes);
+        }).toArray(long[][]::new);
+
+        int total = 0;
+        for (long[] part : parts) {
+            total += part.length;
+        }
+        long[] primes = new long[total];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, primes, offset, part.length);
+            offset += part.length;
+        }
+        return primes;
+    }
+
+    // Clamps a range to [2, to], returns null when it holds no candidates
+    private long[] checkRange(long from, long to) {
+        if ((double) to >= (double) MAX_LIMIT * MAX_LIMIT) {
+            throw new IllegalArgumentException("Range end must be below " + ((long) MAX_LIMIT * MAX_LIMIT) + ".");
+        }
+        long low = Math.max(from, 2);
+        return low > to ? null : new long[]{low, to};
+    }
+
+    // Odd primes up to the square root of high, enough to sieve any segment ending at high
+    private long[] basePrimes(long high) {
+        int root = (int) Math.sqrt((double) high);
+        while ((long) (root + 1) * (root + 1) <= high) root++;
+        Table current = ensure(root + 1);
+
+        long[] primes = new long[16];
+        int count = 0;
+        for (int n = 3; n <= root; n += 2) {
+            if (!isComposite(current.composite, n)) {
+                if (count == primes.length) {
+                    primes = Arrays.copyOf(primes, count * 2);
+                }
+                primes[count++] = n;
+            }
+        }
+        return Arrays.copyOf(primes, count);
+    }
+
+    private static long countSegment(long start, long end, long[] basePrimes) {
+        long[] bits = sieveSegment(start, end, basePrimes);
+        long count = start <= 2 && end >= 2 ? 1 : 0;
+        long firstOdd = start | 1;
+        int oddCount = end < firstOdd ? 0 : (int) ((end - firstOdd) / 2 + 1);
+        for (int word = 0; word < bits.length; word++) {
+            int valid = Math.min(64, oddCount - word * 64);
+            long mask = valid == 64 ? -1L : (1L << valid) - 1;
+            count += Long.bitCount(~bits[word] & mask);
+        }
+        return count;
+    }
+
+    private static long[] listSegment(long start, long end, long[] basePrimes) {
+        long[] bits = sieveSegment(start, end, basePrimes);
+        long firstOdd = start | 1;
+        int oddCount = end < firstOdd ? 0 : (int) ((end - firstOdd) / 2 + 1);
+        long[] primes = new long[16];
+        int count = 0;
+        if (start <= 2 && end >= 2) {
+            primes[count++] = 2;
+        }
+        for (int i = 0; i < oddCount; i++) {
+            if ((bits[i >>> 6] & (1L << i)) == 0) {
+                if (count == primes.length) {
+                    primes = Arrays.copyOf(primes, count * 2);
+                }
+                primes[count++] = firstOdd + 2L * i;
+            }
+        }
+        return Arrays.copyOf(primes, count);
+    }
+
+    // Marks the odd composites in [start, end], bit i stands for (start | 1) + 2i
+    private static long[] sieveSegment(long start, long end, long[] basePrimes) {
+        long firstOdd = start | 1;
+        int oddCount = end < firstOdd ? 0 : (int) ((end - firstOdd) / 2 + 1);
+        long[] bits = new long[(oddCount + 63) >>> 6];
+        if (firstOdd == 1 && oddCount > 0) {
+            bits[0] |= 1; // 1 is not prime
+        }
+        for (long p : basePrimes) {
+            long square = p * p;
+            if (square > end) break;
+            // First odd multiple of p that is at least max(p * p, firstOdd)
+            long multiple = Math.max(square, (firstOdd + p - 1) / p * p);
+            if ((multiple & 1) == 0) multiple += p;
+            for (long m = multiple; m <= end; m += 2 * p) {
+                int i = (int) ((m - firstOdd) >>> 1);
+                bits[i >>> 6] |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    // Grows the shared table so that it covers every n < limit
+    private Table ensure(int limit) {
+        Table current = table;
+        if (limit <= current.limit) {
+            return current;
+        }
+        synchronized (this) {
+            current = table;
+            while (current.limit < limit) {
+                long next = Math.min(Math.max((long) current.limit * 2, limit), MAX_LIMIT);
+                current = sieve(current, (int) next);
+                table = current;
+                if (next == MAX_LIMIT) break;
+            }
+            return current;
+        }
+    }
+
+    // Extends a table to a new limit, only the new segment is sieved
+    private static Table sieve(Table old, int limit) {
+        long[] composite = Arrays.copyOf(old.composite, (limit / 2 + 63) >>> 6);
+        int from = old.limit;
+        if (from <= 1) {
+            composite[0] |= 1; // 1 is not prime
+        }
+        // Odd primes below sqrt(limit) all lie in the old table or are found while sieving it
+        for (int p = 3; (long) p * p < limit; p += 2) {
+            if (isComposite(composite, p)) continue;
+            long multiple = Math.max((long) p * p, ((long) from + p - 1) / p * p);
+            if ((multiple & 1) == 0) multiple += p;
+            for (long m = multiple; m < limit; m += 2L * p) {
+                int i = (int) (m >>> 1);
+                composite[i >>> 6] |= 1L << i;
+            }
+        }
+        return new Table(composite, limit);
+    }
+
+    private static boolean isComposite(long[] composite, int n) {
+        int i = n >>> 1;
+        return (composite[i >>> 6] & (1L << i)) != 0;
+    }
+
+    // Deterministic for odd n > 3 below 2^63
+    static boolean millerRabin(long n) {
+        for (long p : WITNESSES) {
+            if (n % p == 0) return n == p;
+        }
+        long d = n - 1;
+        int shift = Long.numberOfTrailingZeros(d);
+        d >>= shift;
+
+        witnesses:
+        for (long a : WITNESSES) {
+            long x = powMod(a, d, n);
+            if (x == 1 || x == n - 1) continue;
+            for (int r = 1; r < shift; r++) {
+                x = mulMod(x, x, n);
+                if (x == n - 1) continue witnesses;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static long powMod(long base, long exponent, long modulus) {
+        long result = 1;
+        base %= modulus;
+        while (exponent > 0) {
+            if ((exponent & 1) == 1) {
+                result = mulMod(result, base, modulus);
+            }
+            base = mulMod(base, base, modulus);
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    // a * b mod m for 0 <= a, b < m < 2^63 without overflowing
+    private static long mulMod(long a, long b, long m) {
+        if ((a | b) >>> 31 == 0) {
+            return a * b % m;
+        }
+        long result = 0;
+        while (b > 0) {
+            if ((b & 1) == 1) {
+                result = result >= m - a ? result - (m - a) : result + a;
+            }
+            a = a >= m - a ? a - (m - a) : a + a;
+            b >>= 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Collects per-statement execution counts, wall time and allocated bytes for the profile
+// command and --profile. Statements are keyed by their source text, so every run of the same
+// line adds up, and times are inclusive of nested statements. Parse time and evaluation time are
+// summed separately: parse time covers compiling a command once, with the expressions of its
+// loop bodies and the Optimizer, plus the expressions the ArithmeticEvaluator compiles for
+// commands the parser does not take.
+public class Profiler {
+    public static final int DEFAULT_TOP_STATEMENTS = 10;
+
+    // Per-thread allocation counter of HotSpot, null on JVMs that do not offer it
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    private final Map<String, Stats> statements = new LinkedHashMap<>();
+    private long parseNanos;
+    private long parseCount;
+    private long evaluationNanos;
+    private long evaluationCount;
+
+    public static final class Stats {
+        final String source;
+        long count;
+        long totalNanos;
+        long allocatedBytes;
+
+        Stats(String source) {
+            this.source = source;
+        }
+
+        public void record(long nanos, long bytes) {
+            count++;
+            totalNanos += nanos;
+            allocatedBytes += bytes;
+        }
+    }
+
+    // The entry of one statement, look it up once and record every execution into it
+    public Stats statsFor(String source) {
+        Stats stats = statements.get(source);
+        if (stats == null) {
+            stats = new Stats(source);
+            statements.put(source, stats);
+        }
+        return stats;
+    }
+
+    // Bytes allocated by the current thread so far, 0 when the JVM cannot tell
+    public long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+
+    public void recordParse(long nanos) {
+        parseNanos += nanos;
+        parseCount++;
+    }
+
+    public void recordEvaluation(long nanos) {
+        evaluationNanos += nanos;
+        evaluationCount++;
+    }
+
+    // Prints the parse/evaluation split and the statements with the highest total time
+    public void report(Output output, int top) {
+        output.println(String.format("Profile: parse %d calls %.3f ms, evaluation %d calls %.3f ms",
+                parseCount, parseNanos / 1e6, evaluationCount, evaluationNanos / 1e6));
+        if (statements.isEmpty()) {
+            output.println("No statements were executed.");
+            return;
+        }
+
+        List<Stats> hottest = new ArrayList<>(statements.values());
+        hottest.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        int shown = Math.min(top, hottest.size());
+        output.println("Top " + shown + " statements by total time:");
+        output.println(String.format("%12s %12s %10s %14s  %s", "count", "total ms", "mean ns", "alloc bytes", "statement"));
+        for (int i = 0; i < shown; i++) {
+            Stats stats = hottest.get(i);
+            output.println(String.format("%12d %12.3f %10d %14s  %s",
+                    stats.count, stats.totalNanos / 1e6, stats.totalNanos / stats.count,
+                    ALLOCATIONS == null ? "n/a" : Long.toString(stats.allocatedBytes),
+                    singleLine(stats.source)));
+        }
+    }
+
+    private static String singleLine(String source) {
+        String line = source.replace('\n', ' ');
+        return line.length() > 60 ? line.substring(0, 57) + "..." : line;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+            if (allocations.isThreadAllocatedMemorySupported()) {
+                allocations.setThreadAllocatedMemoryEnabled(true);
+                return allocations;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,42 @@
+package utils;
+
+// Statements lowered by the BytecodeCompiler, ready to be run by the VirtualMachine.
+// Every instruction takes INSTRUCTION_SIZE ints: opcode followed by three operands.
+public class Program {
+    public static final int INSTRUCTION_SIZE = 4;
+
+    final int[] code;
+    final Object[] constants;
+    final Statement[] fallbacks;
+    final String[] contexts;
+    // Cached loops as triples: first and end position of the code that keeps variables in
+    // registers, and the constant holding their slots
+    final int[] regions;
+    final int registerCount;
+
+    Program(int[] code, Object[] constants, Statement[] fallbacks, String[] contexts, int[] regions, int registerCount) {
+        this.code = code;
+        this.constants = constants;
+        this.fallbacks = fallbacks;
+        this.contexts = contexts;
+        this.regions = regions;
+        this.registerCount = registerCount;
+    }
+
+    public int getInstructionCount() {
+        return code.length / INSTRUCTION_SIZE;
+    }
+
+    // Human readable listing of the instructions, handy when debugging the compiler
+    public String disassemble() {
+        StringBuilder result = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += INSTRUCTION_SIZE) {
+            result.append(pc / INSTRUCTION_SIZE).append(": ")
+                    .append(VirtualMachine.opcodeName(code[pc])).append(' ')
+                    .append(code[pc + 1]).append(", ")
+                    .append(code[pc + 2]).append(", ")
+                    .append(code[pc + 3]).append('\n');
+        }
+        return result.toString();
+    }
+}
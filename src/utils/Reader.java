@@ -1,80 +1,340 @@
 package utils;
 
+import jdk.jfr.FlightRecorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
-public class Reader {
+public class Reader implements Closeable {
+    // Longest String result that is kept in the algorithm cache
+    private static final int MAX_CACHED_LENGTH = 1 << 16;
+
     private final VariableStorage variableStorage;
+    private final Output output;
     private final ArithmeticEvaluator arithmeticEvaluator;
-    private final ComparisonEvaluator comparisonEvaluator;
     private final Algorithms algorithms;
-
+    private final Parser parser;
+    private final Executor executor;
+    private final BytecodeCompiler bytecodeCompiler;
+    private final VirtualMachine virtualMachine;
+    private final Optimizer optimizer;
+    private final CommandCache commandCache;
+    private final InterpreterMetrics metrics = InterpreterMetrics.global();
+    private final ExecutionBudget budget = new ExecutionBudget();
+    private final boolean sharedScope;
+    private final boolean ownsOutput;
+    private boolean useVirtualMachine;
+    private int optimizationLevel;
+    private boolean trace;
+    private Profiler profiler;
+    private Journal journal;
+    private ResultCache resultCache = ResultCache.create("tinylfu", ResultCache.DEFAULT_CAPACITY);
+    private boolean running = true;
+    private volatile boolean commandRunning;
+
+    // Prints to the standard output, which close() releases again
     public Reader(VariableStorage variableStorage) {
+        this(variableStorage, Output.standard(), true);
+    }
+
+    // A shared storage (see ConcurrentVariableStorage) always runs on the tree executor without
+    // the JIT or the Optimizer: compiled loops, VM registers, hoisted invariants and closed form
+    // loops would keep values that other sessions change
+    public Reader(VariableStorage variableStorage, Output output) {
+        this(variableStorage, output, false);
+    }
+
+    private Reader(VariableStorage variableStorage, Output output, boolean ownsOutput) {
         this.variableStorage = variableStorage;
+        this.sharedScope = variableStorage.isShared();
+        this.output = output;
+        this.ownsOutput = ownsOutput;
         this.arithmeticEvaluator = new ArithmeticEvaluator(variableStorage);
-        this.comparisonEvaluator = new ComparisonEvaluator(variableStorage);
         this.algorithms = new Algorithms();
+        this.parser = new Parser(variableStorage);
+        this.executor = new Executor(variableStorage, output, this::dispatchCommand);
+        this.executor.setJitCompiler(sharedScope ? null : new JitCompiler());
+        this.executor.setBudget(budget);
+        this.bytecodeCompiler = new BytecodeCompiler();
+        this.virtualMachine = new VirtualMachine(variableStorage, executor, output);
+        this.optimizer = new Optimizer();
+        this.commandCache = new CommandCache();
+        metrics.track(variableStorage);
+    }
+
+    // Compiles hot while loops to JVM bytecode (on by default)
+    public void setJitEnabled(boolean enabled) {
+        executor.setJitCompiler(enabled && !sharedScope ? new JitCompiler() : null);
+    }
+
+    // 0 runs statements as parsed, 1 runs them through the Optimizer first. Cached commands were
+    // optimized for the old level and are parsed again.
+    public void setOptimizationLevel(int optimizationLevel) {
+        this.optimizationLevel = sharedScope ? 0 : optimizationLevel;
+        commandCache.clear();
+    }
+
+    // Runs var, print, if and while through the bytecode VM instead of the tree executor
+    public void setUseVirtualMachine(boolean useVirtualMachine) {
+        this.useVirtualMachine = useVirtualMachine && !sharedScope;
+    }
+
+    // Replaces the algorithm result cache, null disables caching
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    // Profiles every command of the session, the report is printed when a script ends or on exit
+    public void setProfiling(boolean profiling) {
+        setProfiler(profiling ? new Profiler() : null);
+    }
+
+    // Appends the variables changed by every command to the journal, which must be the one opened
+    // for this reader's storage (see Journal.open)
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Loop iterations a command may run before it is stopped, 0 (the default) for no limit
+    public void setMaxSteps(long maxSteps) {
+        budget.setMaxSteps(maxSteps);
+    }
+
+    // Milliseconds a command may run before it is stopped, 0 (the default) for no limit
+    public void setTimeoutMillis(long timeoutMillis) {
+        budget.setTimeoutMillis(timeoutMillis);
+    }
+
+    // Stops the running command at its next loop iteration check, callable from any thread.
+    // Returns false when no command was running.
+    public boolean cancel() {
+        if (!commandRunning) {
+            return false;
+        }
+        budget.cancel();
+        return true;
+    }
+
+    // Echoes every command and the parts of while loops, off unless --trace is given
+    public void setTrace(boolean trace) {
+        this.trace = trace;
     }
 
     public void start() {
-        System.out.println("Welcome to MiniKotlin reader!");
-        System.out.println("Type 'help' for a list of commands.");
+        start(System.in);
+    }
+
+    // Runs the interactive reader on the given input until it ends or 'exit' is entered
+    public void start(InputStream in) {
+        output.println("Welcome to MiniKotlin reader!");
+        output.println("Type 'help' for a list of commands.");
 
-        Scanner scanner = new Scanner(System.in);
+        Scanner scanner = new Scanner(in);
 
-        while (true) {
-            System.out.print("> ");
+        while (running) {
+            output.print("> ");
+            output.flush();
+            if (!scanner.hasNextLine()) {
+                break;
+            }
             String input = scanner.nextLine().trim();
-            System.out.println("Input received: " + input);  // Debugging line
+            if (trace) {
+                output.println("Input received: " + input);  // Debugging line
+            }
 
             if (input.isEmpty()) continue;
 
             try {
                 processCommand(input);
             } catch (Exception e) {
-                System.out.println("Error: " + e.getMessage());
+                output.println("Error: " + e.getMessage());
             }
         }
+        output.flush();
+    }
+
+    // Runs a script file without prompts, a command may span several lines while a { is open
+    public void runScript(Path script) throws IOException {
+        try (ScriptReader scriptReader = new ScriptReader(script)) {
+            String input;
+            while (running && (input = scriptReader.nextCommand()) != null) {
+                if (trace) {
+                    output.println("Input received: " + input);  // Debugging line
+                }
+                try {
+                    processCommand(input);
+                } catch (Exception e) {
+                    output.println("Error on line " + scriptReader.getLineNumber() + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            if (profiler != null) {
+                profiler.report(output, Profiler.DEFAULT_TOP_STATEMENTS);
+            }
+            output.flush();
+        }
+    }
+
+    // Closes the output this reader created itself, an output passed in is left to the caller
+    @Override
+    public void close() {
+        if (ownsOutput) {
+            output.close();
+        }
+    }
+
+    // Runs one command as if it had been typed at the prompt, errors are thrown to the caller
+    public void execute(String command) {
+        processCommand(command);
     }
 
     private void processCommand(String input) {
+        // Commands run from inside another one (profile, commands in blocks) share its budget
+        boolean outermost = !commandRunning;
+        if (outermost) {
+            budget.start();
+            executor.startBudget();
+            commandRunning = true;
+        }
+        // Slow commands show up in flight recordings, all of them in the JMX metrics. Loading the
+        // event class starts up the flight recorder, so events are only created once it is running.
+        CommandEvent event = FlightRecorder.isInitialized() ? new CommandEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        InterpreterMetrics.CommandType type = null;
+        try {
+            Profiler profiler = this.profiler;
+            type = profiler == null || input.startsWith("profile ") ? dispatchCommand(input) : dispatchProfiled(input, profiler);
+        } catch (RuntimeException e) {
+            metrics.recordError();
+            throw e;
+        } finally {
+            if (outermost) {
+                commandRunning = false;
+            }
+            if (type != null) {
+                metrics.recordCommand(type, System.nanoTime() - start);
+            }
+            // A failed command may have changed variables before it failed, they are journaled too
+            if (journal != null) {
+                commitJournal();
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.command = input;
+                    event.type = type == null ? "ERROR" : type.name();
+                    event.failed = type == null;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private void commitJournal() {
+        try {
+            journal.commit();
+        } catch (IOException e) {
+            output.println("Error: Cannot write the journal: " + e.getMessage());
+        }
+    }
+
+    // Top-level commands are timed here, statements nested in blocks by the executor
+    private InterpreterMetrics.CommandType dispatchProfiled(String input, Profiler profiler) {
+        Profiler.Stats stats = profiler.statsFor(input);
+        long allocated = profiler.allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            return dispatchCommand(input);
+        } finally {
+            stats.record(System.nanoTime() - start, profiler.allocatedBytes() - allocated);
+        }
+    }
+
+    private InterpreterMetrics.CommandType dispatchCommand(String input) {
+        // A command that was parsed before skips the dispatch below and the parser
+        if (!trace) {
+            Statement cached = commandCache.get(input, variableStorage.getShapeVersion());
+            if (cached != null) {
+                runStatement(input, cached);
+                return typeOf(cached);
+            }
+        }
+
         if (input.startsWith("if")) {
             processIfStatement(input);
+            return InterpreterMetrics.CommandType.IF;
         } else if (input.startsWith("while")) {
             processWhileLoop(input);
+            return InterpreterMetrics.CommandType.WHILE;
+        } else if (input.startsWith("parallel ")) {
+            runStatement(input, compile(input));
+            return InterpreterMetrics.CommandType.PARALLEL;
         } else if (input.startsWith("var ")) {
             processVariableDeclaration(input);
+            return InterpreterMetrics.CommandType.VAR;
         } else if (input.startsWith("print(")) {
             processPrint(input);
+            return InterpreterMetrics.CommandType.PRINT;
         } else if (input.equals("list")) {
-            variableStorage.listVariables();
+            variableStorage.listVariables(output);
+            return InterpreterMetrics.CommandType.LIST;
         } else if (input.startsWith("factorial(") || input.startsWith("sumOfNumbers(") ||
                 input.startsWith("gcd(") || input.startsWith("reverse(") ||
                 input.startsWith("primeChecker(") || input.startsWith("palindromeChecker(") ||
                 input.startsWith("largestDigit(") || input.startsWith("sumOfDigits(") ||
-                input.startsWith("multiplicationTable(") || input.startsWith("fibonacciPos(")) {
+                input.startsWith("multiplicationTable(") || input.startsWith("fibonacciPos(") ||
+                input.startsWith("primeCount(") || input.startsWith("primesIn(")) {
             processAlgorithm(input);
+            return InterpreterMetrics.CommandType.ALGORITHM;
+        } else if (input.startsWith("save ")) {
+            processSave(input.substring("save ".length()).trim());
+            return InterpreterMetrics.CommandType.SAVE;
+        } else if (input.startsWith("load ")) {
+            processLoad(input.substring("load ".length()).trim());
+            return InterpreterMetrics.CommandType.LOAD;
+        } else if (input.startsWith("profile ")) {
+            processProfile(input.substring("profile ".length()).trim());
+            return InterpreterMetrics.CommandType.PROFILE;
+        } else if (input.equals("cacheStats")) {
+            output.println(resultCache == null ? "Algorithm cache is disabled." : resultCache.stats());
+            return InterpreterMetrics.CommandType.CACHE_STATS;
         } else if (input.equals("help")) {
             displayHelp();
+            return InterpreterMetrics.CommandType.HELP;
         } else if(input.equals("methods")) {
             displayMethods();
+            return InterpreterMetrics.CommandType.METHODS;
         } else if (input.equals("exit")) {
             exitInterpreter();
+            return InterpreterMetrics.CommandType.EXIT;
         } else {
-            System.out.println("Error: Unknown command.");
+            output.println("Error: Unknown command.");
+            return InterpreterMetrics.CommandType.UNKNOWN;
         }
     }
 
-    private void processAssignment(String input) {
-        String[] parts = input.split("=");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid assignment: " + input);
+    private static InterpreterMetrics.CommandType typeOf(Statement statement) {
+        if (statement instanceof Statement.If) {
+            return InterpreterMetrics.CommandType.IF;
+        } else if (statement instanceof Statement.While || statement instanceof Statement.ClosedFormLoop) {
+            return InterpreterMetrics.CommandType.WHILE;
+        } else if (statement instanceof Statement.ParallelFor) {
+            return InterpreterMetrics.CommandType.PARALLEL;
+        } else if (statement instanceof Statement.VarDeclaration) {
+            return InterpreterMetrics.CommandType.VAR;
+        } else if (statement instanceof Statement.Print) {
+            return InterpreterMetrics.CommandType.PRINT;
         }
-
-        String variableName = parts[0].trim();
-        String valueExpression = parts[1].trim();
-        Object value = evaluateExpression(valueExpression);
-
-        variableStorage.setVariable(variableName, value);
+        return InterpreterMetrics.CommandType.UNKNOWN;
     }
 
     private void processAlgorithm(String input) {
@@ -82,134 +342,259 @@ public class Reader {
             String command = input.substring(0, input.indexOf("("));
             String params = input.substring(input.indexOf("(") + 1, input.indexOf(")"));
             String[] args = params.split(",");
+            for (int i = 0; i < args.length; i++) {
+                args[i] = args[i].trim();
+            }
 
-            switch (command) {
-                case "sumOfNumbers":
-                    System.out.println(algorithms.sumOfNumbers(Integer.parseInt(args[0].trim())));
-                    break;
-                case "factorial":
-                    System.out.println(algorithms.factorial(Integer.parseInt(args[0].trim())));
-                    break;
-                case "gcd":
-                    System.out.println(algorithms.gcd(Integer.parseInt(args[0].trim()), Integer.parseInt(args[1].trim())));
-                    break;
-                case "reverse":
-                    System.out.println(algorithms.reverse(Integer.parseInt(args[0].trim())));
-                    break;
-                case "primeChecker":
-                    System.out.println(algorithms.primeChecker(Integer.parseInt(args[0].trim())));
-                    break;
-                case "palindromeChecker":
-                    System.out.println(algorithms.palindromeChecker(Integer.parseInt(args[0].trim())));
-                    break;
-                case "largestDigit":
-                    System.out.println(algorithms.largestDigit(Integer.parseInt(args[0].trim())));
-                    break;
-                case "sumOfDigits":
-                    System.out.println(algorithms.sumOfDigits(Integer.parseInt(args[0].trim())));
-                    break;
-                case "multiplicationTable":
-                    System.out.println(algorithms.multiplicationTable(Integer.parseInt(args[0].trim())));
-                    break;
-                case "fibonacciPos":
-                    System.out.println(algorithms.fibonacciPos(Integer.parseInt(args[0].trim())));
-                    break;
-                default:
-                    System.out.println("Error: Unknown algorithm.");
+            // The algorithms are pure, so a result can be reused for the same arguments
+            String key = command + "(" + String.join(",", args) + ")";
+            metrics.recordAlgorithm(command);
+            Object result = resultCache == null ? null : resultCache.get(key);
+            if (result == null) {
+                result = runAlgorithm(command, args);
+                if (result == null) {
+                    output.println("Error: Unknown algorithm.");
+                    return;
+                }
+                // Big numbers are kept as their digits, converting them costs more than a hit saves
+                if (result instanceof BigInteger) {
+                    result = result.toString();
+                }
+                if (resultCache != null && isCacheable(result)) {
+                    resultCache.put(key, result);
+                }
             }
+            output.println(result);
         } catch (Exception e) {
-            System.out.println("Error in algorithm usage: " + e.getMessage());
+            metrics.recordError();
+            output.println("Error in algorithm usage: " + e.getMessage());
+        }
+    }
+
+    private Object runAlgorithm(String command, String[] args) {
+        DigitKernels.Operation digits = DigitKernels.Operation.named(command);
+        if (digits != null && (args[0].contains("..") || args[0].startsWith("["))) {
+            return runDigitForm(digits, args);
+        }
+        switch (command) {
+            case "sumOfNumbers":
+                return algorithms.sumOfNumbers(Integer.parseInt(args[0]));
+            case "factorial":
+                return algorithms.factorial(Integer.parseInt(args[0]));
+            case "gcd":
+                return algorithms.gcd(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            case "reverse":
+                return algorithms.reverse(Integer.parseInt(args[0]));
+            case "primeChecker":
+                return algorithms.primeChecker(Long.parseLong(args[0]));
+            case "palindromeChecker":
+                return algorithms.palindromeChecker(Integer.parseInt(args[0]));
+            case "largestDigit":
+                return algorithms.largestDigit(Integer.parseInt(args[0]));
+            case "sumOfDigits":
+                return algorithms.sumOfDigits(Integer.parseInt(args[0]));
+            case "multiplicationTable":
+                return algorithms.multiplicationTable(Integer.parseInt(args[0]));
+            case "fibonacciPos":
+                return algorithms.fibonacciPos(Integer.parseInt(args[0]));
+            case "primeCount":
+                return algorithms.primeCount(Long.parseLong(args[0]), Long.parseLong(args[1]));
+            case "primesIn":
+                return algorithms.primesIn(Long.parseLong(args[0]), Long.parseLong(args[1]));
+            default:
+                return null;
+        }
+    }
+
+    // sumOfDigits(a..b) sums the results over the range, sumOfDigits([x, y, ...]) lists one per value
+    private Object runDigitForm(DigitKernels.Operation operation, String[] args) {
+        if (args[0].startsWith("[")) {
+            String list = String.join(",", args);
+            if (!list.endsWith("]")) {
+                throw new IllegalArgumentException("Expected ']' at the end of " + list);
+            }
+            String inner = list.substring(1, list.length() - 1).trim();
+            String[] items = inner.isEmpty() ? new String[0] : inner.split(",");
+            int[] values = new int[items.length];
+            for (int i = 0; i < items.length; i++) {
+                values[i] = Integer.parseInt(items[i].trim());
+            }
+            return DigitKernels.list(operation, values);
+        }
+        if (args.length != 1) {
+            throw new IllegalArgumentException("A range takes no further arguments.");
         }
+        int dots = args[0].indexOf("..");
+        int from = Integer.parseInt(args[0].substring(0, dots).trim());
+        int to = Integer.parseInt(args[0].substring(dots + 2).trim());
+        return DigitKernels.aggregate(operation, from, to);
+    }
+
+    // Very long listings and numbers would crowd out everything else in the cache
+    private boolean isCacheable(Object result) {
+        return !(result instanceof String) || ((String) result).length() <= MAX_CACHED_LENGTH;
     }
 
     private void processWhileLoop(String input) {
-        System.out.println("Processing while loop: " + input); // Debugging line
+        if (trace) {
+            output.println("Processing while loop: " + input); // Debugging line
+        }
 
-        // Ensure the while loop starts with "while(" and ends with ")"
-        if (!input.startsWith("while(") || !input.contains("){")) {
+        // Parse the loop once, the body is never re-split while iterating
+        Statement statement = compile(input, Statement.While.class);
+        if (statement == null) {
             throw new IllegalArgumentException("Syntax error: Invalid while loop.");
         }
 
-        // Extract the condition between "while(" and ")"
-        String condition = input.substring(input.indexOf("(") + 1, input.indexOf(")")).trim();
-        // Extract the body between "{ and }"
-        String body = input.substring(input.indexOf("{") + 1, input.lastIndexOf("}")).trim();
-
         // Debugging: Check if we are getting the correct condition and body
-        System.out.println("Condition: " + condition);  // Debugging line
-        System.out.println("Body: " + body);  // Debugging line
-
-        // Loop until the condition is false
-        while (evaluateCondition(condition)) {
-            // Split the body by semicolon and process each statement
-            String[] statements = body.split(";");
-            for (String statement : statements) {
-                statement = statement.trim();
-                // Process each statement inside the loop
-                if (statement.startsWith("print(")) {
-                    processPrint(statement);
-                } else {
-                    processAssignment(statement);  // This will handle the assignment like x = x + 1
-                }
-            }
-
-            // Re-evaluate the condition after executing the body
-            // We need to ensure that the condition is evaluated again with the updated variable values
-            condition = input.substring(input.indexOf("(") + 1, input.indexOf(")")).trim();
+        if (trace) {
+            Statement.While loop = statement instanceof Statement.ClosedFormLoop
+                    ? ((Statement.ClosedFormLoop) statement).loop : (Statement.While) statement;
+            output.println("Condition: " + loop.getCondition().getSource());  // Debugging line
+            output.println("Body: " + loop.getBody().getSource());  // Debugging line
         }
+
+        runStatement(input, statement);
     }
 
     private void processIfStatement(String input) {
         // Ensure the if statement has parentheses and curly braces
         if (input.startsWith("if") && input.contains("(") && input.contains(")")) {
-            // Extract the condition inside the parentheses
-            String conditionPart = input.substring(input.indexOf("(") + 1, input.indexOf(")")).trim();
+            // Parse the condition and both branches once, then run the tree
+            runStatement(input, compile(input));
+        } else {
+            throw new IllegalArgumentException("Syntax error: Invalid if statement.");
+        }
+    }
 
-            // Extract the body of the 'if' block, starting after the first '{' and ending before the last '}'
-            String bodyPart = input.substring(input.indexOf("{") + 1, input.indexOf("}")).trim();
+    // Parses a top-level command and keeps the statement for the next time the same text comes in
+    private Statement compile(String input) {
+        return compile(input, Statement.class);
+    }
 
-            // Check if there's an 'else' part
-            String elsePart = "";
-            if (input.contains("else")) {
-                elsePart = input.substring(input.indexOf("else") + 4).trim();
+    // Parses a command, expressions included, optimizes it once and caches the result, so a cached
+    // command is not rewritten again and keeps what its loops compiled. Returns null when the
+    // command is not a kind statement. The profiler counts all of it as parse time, rewrites are
+    // debug output shown with --trace.
+    private Statement compile(String input, Class<? extends Statement> kind) {
+        Profiler profiler = this.profiler;
+        long start = profiler == null ? 0 : System.nanoTime();
+        try {
+            Statement statement = parser.parse(input);
+            if (!kind.isInstance(statement)) {
+                return null;
+            }
+            if (optimizationLevel > 0) {
+                statement = optimizer.optimize(statement);
+                if (trace) {
+                    for (String rewrite : optimizer.getRewrites()) {
+                        output.println("Optimizer: " + rewrite);
+                    }
+                }
             }
+            commandCache.put(input, statement, variableStorage.getShapeVersion());
+            return statement;
+        } finally {
+            if (profiler != null) {
+                profiler.recordParse(System.nanoTime() - start);
+            }
+        }
+    }
+
+    // Runs a var or print command as a cached statement, input the parser rejects keeps the
+    // original handling and its error messages
+    private boolean runCompiled(String input, Class<? extends Statement> kind) {
+        Statement statement;
+        try {
+            statement = compile(input, kind);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (statement == null) {
+            return false;
+        }
+        runStatement(input, statement);
+        return true;
+    }
 
-            // Evaluate the condition (true or false)
-            boolean condition = evaluateCondition(conditionPart);
-            if (condition) {
-                // Process the body if the condition is true
-                processCommand(bodyPart);
-            } else if (!elsePart.isEmpty()) {
-                // Process the 'else' body if the condition is false and there's an 'else' part
-                processCommand(elsePart);
+    // Runs a cached statement with the selected engine, profiled statements always on the tree
+    // executor. The VM program is kept in the command cache next to the statement of input.
+    private void runStatement(String input, Statement statement) {
+        Profiler profiler = this.profiler;
+        if (profiler != null) {
+            long start = System.nanoTime();
+            try {
+                executor.execute(statement);
+            } finally {
+                profiler.recordEvaluation(System.nanoTime() - start);
+            }
+        } else if (useVirtualMachine) {
+            Program program = commandCache.getProgram(input, statement);
+            if (program == null) {
+                program = bytecodeCompiler.compile(statement);
+                commandCache.putProgram(input, statement, program);
             }
+            virtualMachine.run(program);
         } else {
-            throw new IllegalArgumentException("Syntax error: Invalid if statement.");
+            executor.execute(statement);
+        }
+    }
+
+    private void processSave(String file) {
+        try {
+            int count = Snapshot.save(variableStorage, Paths.get(file));
+            output.println("Saved " + count + " variables to " + file + ".");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot save to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void processLoad(String file) {
+        try {
+            int count = Snapshot.load(variableStorage, Paths.get(file));
+            output.println("Loaded " + count + " variables from " + file + ".");
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException("File '" + file + "' does not exist.");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot load " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Runs one command with a fresh profiler and prints its report, an active --profile keeps its own numbers
+    private void processProfile(String command) {
+        Profiler previous = profiler;
+        Profiler current = new Profiler();
+        setProfiler(current);
+        try {
+            processCommand(command);
+        } finally {
+            setProfiler(previous);
         }
+        current.report(output, Profiler.DEFAULT_TOP_STATEMENTS);
     }
 
-    private boolean evaluateCondition(String condition) {
-        return comparisonEvaluator.evaluateComparison(condition);
+    private void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        executor.setProfiler(profiler);
+        arithmeticEvaluator.setProfiler(profiler);
     }
 
     private Object evaluateExpression(String expression) {
         try {
-            if (expression.matches("-?\\d+")) {
-                return Integer.parseInt(expression);
-            } else if (expression.matches("\".*\"")) {
-                return expression.substring(1, expression.length() - 1);
-            } else {
-                return arithmeticEvaluator.evaluateArithmetic(expression);
-            }
+            // Literals, variables and arithmetic all go through the compiled expression path
+            return arithmeticEvaluator.evaluateArithmetic(expression);
         } catch (Exception e) {
             throw new IllegalArgumentException("Invalid expression: " + expression);
         }
     }
 
     private void processVariableDeclaration(String input) {
+        if (runCompiled(input, Statement.VarDeclaration.class)) {
+            return;
+        }
         String[] parts = input.substring(4).split("=");
         if (parts.length != 2) {
-            System.out.println("Syntax error: Invalid variable declaration.");
+            output.println("Syntax error: Invalid variable declaration.");
             return;
         }
 
@@ -220,30 +605,31 @@ public class Reader {
     }
 
     private void processPrint(String input) {
+        if (runCompiled(input, Statement.Print.class)) {
+            return;
+        }
         if (!input.startsWith("print(") || !input.endsWith(")")) {
             throw new IllegalArgumentException("Syntax error: Invalid print statement.");
         }
 
         String content = input.substring(6, input.length() - 1).trim();
-        Object result;
+        Object result = evaluateExpression(content);
 
-        if (variableStorage.hasVariable(content)) {
-            result = variableStorage.getVariable(content);
-        } else {
-            result = evaluateExpression(content);
-        }
-
-        System.out.println(result);
+        output.println(result);
     }
 
     private void displayHelp() {
-        System.out.println(
+        output.println(
                 "Welcome to MiniKotlin Interpreter!\n" +
                         "Supported commands:\n" +
                         "- var <name> = <value> : Declare a variable.\n" +
                         "- print(<value>) : Print a value or variable.\n" +
                         "- while(<condition>){ <statements>; } : Perform a loop.\n" +
+                        "- parallel for(<i> in <a>..<b>) reduce(sum <s>, count <c>, min <m>, max <m>){ <statements>; } : Run a loop on all cores.\n" +
                         "- list : List all stored variables.\n" +
+                        "- save <file> / load <file> : Write all variables to a snapshot file, or read them back.\n" +
+                        "- profile <statement> : Run a statement and report the time spent in each statement.\n" +
+                        "- cacheStats : Show hit rate and evictions of the algorithm cache.\n" +
                         "- help : Display this help message.\n" +
                         "- methods : Display all methods.\n" +
                         "- exit : Exit the interpreter."
@@ -251,7 +637,7 @@ public class Reader {
     }
 
     private void displayMethods() {
-        System.out.println(
+        output.println(
                 "All avaliable methods!\n" +
                         "- sumOfNumbers(a) : Integer sum from 1 to a \n" +
                         "- factorial(a) : Factorial of a.\n" +
@@ -261,15 +647,25 @@ public class Reader {
                         "- palindromeChecker(a) : Check if a is palindrome.\n" +
                         "- largestDigit(a) : Finds the largest digit in a.\n" +
                         "- sumOfDigits(a) : Sums the digits of a.\n" +
+                        "- sumOfDigits(a..b), largestDigit(a..b), reverse(a..b) : Sum of the results for all numbers from a to b.\n" +
+                        "- palindromeChecker(a..b) : Counts the palindromes from a to b.\n" +
+                        "- sumOfDigits([a, b, ...]) : One result per number, also for largestDigit, reverse and palindromeChecker.\n" +
                         "- multiplicationTable(a) : Prints multiplication table of a up to 10.\n" +
-                        "- fibonacciPos(a) : Compute Fibonacci number on position a.(starts counting from position 0)\n"
+                        "- fibonacciPos(a) : Compute Fibonacci number on position a.(starts counting from position 0)\n" +
+                        "- primeCount(a,b) : Counts the primes between a and b.\n" +
+                        "- primesIn(a,b) : Lists the primes between a and b.\n"
 
         );
     }
 
 
+    // Ends this reader's session only, other sessions in the same JVM keep running
     private void exitInterpreter() {
-        System.out.println("Exiting MiniKotlin Interpreter.");
-        System.exit(0);
+        if (profiler != null) {
+            profiler.report(output, Profiler.DEFAULT_TOP_STATEMENTS);
+        }
+        output.println("Exiting MiniKotlin Interpreter.");
+        output.flush();
+        running = false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+package utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded cache for the results of the pure Algorithms methods, keyed by method and arguments.
+// Every operation is synchronized so one cache can be shared by all server sessions.
+public abstract class ResultCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // Creates a cache for the policy named on the command line, "lru" or "tinylfu"
+    public static ResultCache create(String policy, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache size must be positive.");
+        }
+        switch (policy) {
+            case "lru":
+                return new Lru(capacity);
+            case "tinylfu":
+                return new TinyLfu(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown cache policy: " + policy);
+        }
+    }
+
+    // Returns the cached result or null
+    public synchronized Object get(String key) {
+        Object value = lookup(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(String key, Object value) {
+        store(key, value);
+    }
+
+    // One line summary for the cacheStats command
+    public synchronized String stats() {
+        long requests = hits + misses;
+        double hitRate = requests == 0 ? 0 : 100.0 * hits / requests;
+        return String.format("Algorithm cache (%s, %d/%d entries): %d hits, %d misses, hit rate %.1f%%, %d evictions",
+                getPolicy(), size(), getCapacity(), hits, misses, hitRate, evictions);
+    }
+
+    abstract String getPolicy();
+
+    abstract int getCapacity();
+
+    abstract int size();
+
+    abstract Object lookup(String key);
+
+    abstract void store(String key, Object value);
+
+    void evicted() {
+        evictions++;
+    }
+
+    // Evicts the least recently used entry
+    static final class Lru extends ResultCache {
+        private final int capacity;
+        private final LinkedHashMap<String, Object> entries;
+
+        Lru(int capacity) {
+            this.capacity = capacity;
+            this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                    if (size() > Lru.this.capacity) {
+                        evicted();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        String getPolicy() {
+            return "LRU";
+        }
+
+        @Override
+        int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        int size() {
+            return entries.size();
+        }
+
+        @Override
+        Object lookup(String key) {
+            return entries.get(key);
+        }
+
+        @Override
+        void store(String key, Object value) {
+            entries.put(key, value);
+        }
+    }
+
+    // W-TinyLFU: new entries go to a small LRU window, and an entry leaving the window only
+    // enters the main segmented LRU when it has been requested more often than the entry it
+    // would evict. Frequencies come from a count-min sketch that halves itself periodically,
+    // so one-off arguments never flush out the results that are asked for again and again.
+    static final class TinyLfu extends ResultCache {
+        private final int capacity;
+        private final int windowCapacity;
+        private final int protectedCapacity;
+        private final int mainCapacity;
+        private final LinkedHashMap<String, Object> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Object> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, Object> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final FrequencySketch sketch;
+
+        TinyLfu(int capacity) {
+            this.capacity = capacity;
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = capacity - windowCapacity;
+            this.protectedCapacity = mainCapacity * 4 / 5;
+            this.sketch = new FrequencySketch(capacity);
+        }
+
+        @Override
+        String getPolicy() {
+            return "W-TinyLFU";
+        }
+
+        @Override
+        int getCapacity() {
+            return capacity;
+        }
+
+        @Override
+        int size() {
+            return window.size() + probation.size() + protectedEntries.size();
+        }
+
+        @Override
+        Object lookup(String key) {
+            sketch.increment(key);
+            Object value = window.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = protectedEntries.get(key);
+            if (value != null) {
+                return value;
+            }
+            value = probation.remove(key);
+            if (value != null) {
+                // A second hit in the main segment promotes the entry
+                protectedEntries.put(key, value);
+                if (protectedEntries.size() > protectedCapacity) {
+                    Map.Entry<String, Object> demoted = removeEldest(protectedEntries);
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+            return value;
+        }
+
+        @Override
+        void store(String key, Object value) {
+            if (window.containsKey(key)) {
+                window.put(key, value);
+                return;
+            }
+            if (probation.containsKey(key)) {
+                probation.put(key, value);
+                return;
+            }
+            if (protectedEntries.containsKey(key)) {
+                protectedEntries.put(key, value);
+                return;
+            }
+
+            window.put(key, value);
+            if (window.size() <= windowCapacity) {
+                return;
+            }
+            Map.Entry<String, Object> candidate = removeEldest(window);
+            if (mainCapacity == 0) {
+                evicted();
+                return;
+            }
+            if (probation.size() + protectedEntries.size() < mainCapacity) {
+                probation.put(candidate.getKey(), candidate.getValue());
+                return;
+            }
+
+            LinkedHashMap<String, Object> victims = probation.isEmpty() ? protectedEntries : probation;
+            String victim = victims.keySet().iterator().next();
+            if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+                victims.remove(victim);
+                probation.put(candidate.getKey(), candidate.getValue());
+            }
+            evicted();
+        }
+
+        private static Map.Entry<String, Object> removeEldest(LinkedHashMap<String, Object> map) {
+            Iterator<Map.Entry<String, Object>> iterator = map.entrySet().iterator();
+            Map.Entry<String, Object> eldest = iterator.next();
+            Map.Entry<String, Object> copy = Map.entry(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            return copy;
+        }
+    }
+
+    // Count-min sketch of 4-bit counters, sixteen to a long. Every counter is halved once the
+    // number of increments reaches ten times the cache capacity, so old popularity fades.
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0x97cb3127L, 0xab8f9d23L, 0xc2b2ae35L, 0x9e3779b9L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            this.table = new long[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * Math.max(capacity, 16);
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int depth = 0; depth < SEEDS.length; depth++) {
+                int index = indexOf(hash, depth);
+                int shift = counterOffset(hash, depth);
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+            for (int depth = 0; depth < SEEDS.length; depth++) {
+                int count = (int) ((table[indexOf(hash, depth)] >>> counterOffset(hash, depth)) & 0xF);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        // Which of the sixteen counters in the word belongs to this row
+        private static int counterOffset(int hash, int depth) {
+            return (((hash >>> (depth * 8)) & 3) << 2 | depth) << 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Streams a MiniKotlin script from disk and splits it into complete commands. The file is
+// read through a FileChannel into a direct buffer and decoded incrementally, so scripts of any
+// size are never loaded whole. A command ends at the end of its line unless a { is still open,
+// and an if block continues when the next line starts with else.
+public class ScriptReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder line = new StringBuilder();
+    private boolean endOfInput;
+    private String pendingLine;
+    private int lineNumber;
+
+    public ScriptReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.chars.flip();
+    }
+
+    // Line number of the last line that was read, for error messages
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    // Returns the next complete command, or null at the end of the script
+    public String nextCommand() throws IOException {
+        StringBuilder command = new StringBuilder();
+        int depth = 0;
+        String next;
+
+        while ((next = nextLine()) != null) {
+            String trimmed = next.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("//")) {
+                continue;
+            }
+            if (command.length() > 0) {
+                command.append('\n');
+            }
+            command.append(trimmed);
+            depth += braceBalance(trimmed);
+
+            if (depth <= 0) {
+                boolean isIf = command.length() > 1 && command.charAt(0) == 'i' && command.charAt(1) == 'f';
+                if (isIf && trimmed.endsWith("}") && elseFollows()) {
+                    continue;
+                }
+                return command.toString();
+            }
+        }
+        // An unterminated block is still handed over so the parser can report it
+        return command.length() > 0 ? command.toString() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Looks past blank lines for a line starting with else, keeping it for the next read
+    private boolean elseFollows() throws IOException {
+        String next;
+        while ((next = nextLine()) != null) {
+            String trimmed = next.trim();
+            if (!trimmed.isEmpty()) {
+                pendingLine = next;
+                return trimmed.startsWith("else");
+            }
+        }
+        return false;
+    }
+
+    // Counts { minus }, ignoring braces inside string literals
+    private int braceBalance(String text) {
+        int balance = 0;
+        boolean inString = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                inString = !inString;
+            } else if (!inString && c == '{') {
+                balance++;
+            } else if (!inString && c == '}') {
+                balance--;
+            }
+        }
+        return balance;
+    }
+
+    private String nextLine() throws IOException {
+        if (pendingLine != null) {
+            String result = pendingLine;
+            pendingLine = null;
+            return result;
+        }
+
+        while (true) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    return takeLine();
+                }
+                if (c != '\r') {
+                    line.append(c);
+                }
+            }
+            if (endOfInput) {
+                return line.length() > 0 ? takeLine() : null;
+            }
+            fill();
+        }
+    }
+
+    private String takeLine() {
+        lineNumber++;
+        String result = line.toString();
+        line.setLength(0);
+        return result;
+    }
+
+    // Reads the next block of bytes from the channel and decodes it into chars
+    private void fill() throws IOException {
+        chars.clear();
+        if (channel.read(bytes) < 0) {
+            endOfInput = true;
+        }
+        bytes.flip();
+        decoder.decode(bytes, chars, endOfInput);
+        if (endOfInput) {
+            decoder.flush(chars);
+        }
+        bytes.compact();
+        chars.flip();
+    }
+}
@@ -0,0 +1,158 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary snapshots of the variables for the save and load commands. A snapshot is a magic
+// number, the number of variables and one entry per variable: the name length (short) and its
+// ASCII bytes, a type tag (VariableStorage.INT or STRING) and the value, an int or a UTF-8 string
+// with its byte length in front. The journal (see Journal) uses the same entries.
+public class Snapshot {
+    static final int MAGIC = 0x4D4B5331; // "MKS1"
+
+    // Writes all defined variables, the old file is only replaced once the new one is complete
+    public static int save(VariableStorage variableStorage, Path file) throws IOException {
+        // A shared storage keeps changing, its copy is consistent
+        VariableStorage storage = variableStorage.isShared() ? variableStorage.localCopy() : variableStorage;
+        Path temporary = file.toAbsolutePath().resolveSibling(file.getFileName() + ".tmp");
+        int count = storage.getVariableCount();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            writeEntries(out, storage);
+            out.flush();
+            channel.force(true);
+        }
+        replace(temporary, file);
+        return count;
+    }
+
+    // Reads a snapshot through a memory mapping and defines its variables, replacing the values
+    // of variables that already exist. The file is checked in a first pass that only reads it,
+    // so nothing is changed when it is damaged or names a variable the language cannot write.
+    public static int load(VariableStorage variableStorage, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = map(channel);
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("'" + file + "' is not a MiniKotlin snapshot.");
+            }
+            int count = buffer.getInt();
+            int entries = buffer.position();
+            try {
+                if (count < 0 || count > buffer.remaining() / 4) {
+                    throw damaged(file);
+                }
+                for (int i = 0; i < count; i++) {
+                    skipEntry(buffer);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw damaged(file);
+            }
+
+            buffer.position(entries);
+            variableStorage.ensureCapacity(variableStorage.getSlotCount() + count);
+            for (int i = 0; i < count; i++) {
+                readEntry(buffer, variableStorage);
+            }
+            return count;
+        }
+    }
+
+    static MappedByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Files over 2 GB cannot be loaded.");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    // One entry for every defined variable of the storage, in slot order
+    static void writeEntries(DataOutput out, VariableStorage storage) throws IOException {
+        int slots = storage.getSlotCount();
+        for (int slot = 0; slot < slots; slot++) {
+            if (storage.isDefined(slot)) {
+                writeEntry(out, storage.nameOf(slot), storage.get(slot));
+            }
+        }
+    }
+
+    static void writeEntry(DataOutput out, String name, Object value) throws IOException {
+        // Defined names are validated identifiers, so one byte per character is enough
+        out.writeShort(name.length());
+        out.writeBytes(name);
+        if (value instanceof Integer) {
+            out.writeByte(VariableStorage.INT);
+            out.writeInt((Integer) value);
+        } else {
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(VariableStorage.STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // Defines the variable of the next entry, ints are stored without boxing
+    static void readEntry(ByteBuffer buffer, VariableStorage variableStorage) {
+        int slot = variableStorage.slotOf(readName(buffer));
+        byte type = buffer.get();
+        if (type == VariableStorage.INT) {
+            variableStorage.setInt(slot, buffer.getInt());
+        } else if (type == VariableStorage.STRING) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            variableStorage.set(slot, new String(bytes, StandardCharsets.UTF_8));
+        } else {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    // Moves past the next entry, throws when it does not fit in the buffer, is malformed or its
+    // name is not a valid variable name
+    static void skipEntry(ByteBuffer buffer) {
+        String name = readName(buffer);
+        if (!VariableStorage.isValidName(name)) {
+            throw new IllegalArgumentException("Invalid variable name: '" + name + "'");
+        }
+        byte type = buffer.get();
+        int length = 4;
+        if (type == VariableStorage.STRING) {
+            length = buffer.getInt();
+        } else if (type != VariableStorage.INT) {
+            throw new IllegalArgumentException("Unknown type tag " + type);
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static IllegalArgumentException damaged(Path file) {
+        return new IllegalArgumentException("The snapshot '" + file + "' is damaged.");
+    }
+}
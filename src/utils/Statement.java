@@ -0,0 +1,215 @@
+package utils;
+
+// A parsed MiniKotlin statement, built once by the Parser and run by the Executor
+public abstract class Statement {
+    private final String source;
+
+    protected Statement(String source) {
+        this.source = source;
+    }
+
+    // The source text the statement was parsed from
+    public String getSource() {
+        return source;
+    }
+
+    // Dispatches to the matching method of the executor
+    public abstract void execute(Executor executor);
+
+    // var <name> = <value>
+    public static final class VarDeclaration extends Statement {
+        final String name;
+        final int slot;
+        final Expression value;
+
+        public VarDeclaration(String source, String name, int slot, Expression value) {
+            super(source);
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeVarDeclaration(this);
+        }
+    }
+
+    // <name> = <value>
+    public static final class Assignment extends Statement {
+        final String name;
+        final int slot;
+        final Expression value;
+
+        public Assignment(String source, String name, int slot, Expression value) {
+            super(source);
+            this.name = name;
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeAssignment(this);
+        }
+    }
+
+    // print(<value>)
+    public static final class Print extends Statement {
+        final Expression value;
+
+        public Print(String source, Expression value) {
+            super(source);
+            this.value = value;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executePrint(this);
+        }
+    }
+
+    // if(<condition>){ ... } else { ... }
+    public static final class If extends Statement {
+        final Expression condition;
+        final Statement thenBranch;
+        final Statement elseBranch; // null when there is no else part
+
+        public If(String source, Expression condition, Statement thenBranch, Statement elseBranch) {
+            super(source);
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeIf(this);
+        }
+    }
+
+    // while(<condition>){ ... }
+    public static final class While extends Statement {
+        final Expression condition;
+        final Block body;
+        final Expression.Invariant[] invariants; // hoisted by the Optimizer, reset on every entry
+
+        // Filled in by the JitCompiler once the loop gets hot
+        JitCompiler.CompiledLoop compiledLoop;
+        boolean notCompilable;
+
+        public While(String source, Expression condition, Block body) {
+            this(source, condition, body, new Expression.Invariant[0]);
+        }
+
+        public While(String source, Expression condition, Block body, Expression.Invariant[] invariants) {
+            super(source);
+            this.condition = condition;
+            this.body = body;
+            this.invariants = invariants;
+        }
+
+        public Expression getCondition() {
+            return condition;
+        }
+
+        public Block getBody() {
+            return body;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeWhile(this);
+        }
+    }
+
+    // A counting loop the Optimizer replaced with its closed form, e.g.
+    // while(i < n){ s = s + i; i = i + 1 } becomes s += sum of i..n-1 and i = n.
+    // The original loop runs instead whenever the guards in the Executor do not hold.
+    public static final class ClosedFormLoop extends Statement {
+        final While loop;
+        final int counterSlot;
+        final Expression limit;     // an int literal or a variable the loop never assigns
+        final boolean inclusive;    // <= instead of <
+        final int step;
+        final int[] accumulatorSlots;
+        final Expression[] terms;   // literal, loop invariant variable, or the counter itself
+        final boolean[] afterStep;  // counter terms read the counter after it was stepped
+
+        public ClosedFormLoop(While loop, int counterSlot, Expression limit, boolean inclusive, int step,
+                              int[] accumulatorSlots, Expression[] terms, boolean[] afterStep) {
+            super(loop.getSource());
+            this.loop = loop;
+            this.counterSlot = counterSlot;
+            this.limit = limit;
+            this.inclusive = inclusive;
+            this.step = step;
+            this.accumulatorSlots = accumulatorSlots;
+            this.terms = terms;
+            this.afterStep = afterStep;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeClosedFormLoop(this);
+        }
+    }
+
+    // parallel for(<index> in <from>..<to>) reduce(sum s, max m){ ... }, see ParallelLoop
+    public static final class ParallelFor extends Statement {
+        final String index;
+        final int indexSlot;
+        final Expression from;
+        final Expression to;  // inclusive, like a Kotlin range
+        final ParallelLoop.Reduction[] reductions;
+        final int[] reductionSlots;
+        final int[] localSlots; // the other slots the body writes, they must not exist outside the loop
+        final Block body;
+
+        public ParallelFor(String source, String index, int indexSlot, Expression from, Expression to,
+                           ParallelLoop.Reduction[] reductions, int[] reductionSlots, int[] localSlots, Block body) {
+            super(source);
+            this.index = index;
+            this.indexSlot = indexSlot;
+            this.from = from;
+            this.to = to;
+            this.reductions = reductions;
+            this.reductionSlots = reductionSlots;
+            this.localSlots = localSlots;
+            this.body = body;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeParallelFor(this);
+        }
+    }
+
+    // A sequence of statements, e.g. the body between { and }
+    public static final class Block extends Statement {
+        final Statement[] statements;
+
+        public Block(String source, Statement[] statements) {
+            super(source);
+            this.statements = statements;
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeBlock(this);
+        }
+    }
+
+    // Any other command (algorithms, list, help, ...), handed back to the Reader as text
+    public static final class Command extends Statement {
+
+        public Command(String source) {
+            super(source);
+        }
+
+        @Override
+        public void execute(Executor executor) {
+            executor.executeCommand(this);
+        }
+    }
+}
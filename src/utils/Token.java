@@ -0,0 +1,61 @@
+package utils;
+
+public class Token {
+
+    // All kinds of tokens produced by the Lexer
+    public enum Type {
+        IDENTIFIER, NUMBER, STRING,
+        PLUS, MINUS, STAR, SLASH, PERCENT,
+        ASSIGN, EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL,
+        LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+        SEMICOLON, COMMA, DOT_DOT,
+        EOF
+    }
+
+    private final Type type;
+    private final String text;
+    private final int start;
+    private final int end;
+    private final boolean newlineBefore;
+
+    public Token(Type type, String text, int start, int end, boolean newlineBefore) {
+        this.type = type;
+        this.text = text;
+        this.start = start;
+        this.end = end;
+        this.newlineBefore = newlineBefore;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    // Offset of the first character of the token in the source
+    public int getStart() {
+        return start;
+    }
+
+    // Offset just past the last character of the token in the source
+    public int getEnd() {
+        return end;
+    }
+
+    // True when a line break separates this token from the previous one
+    public boolean isNewlineBefore() {
+        return newlineBefore;
+    }
+
+    // Checks if this token is the given identifier or keyword
+    public boolean is(String word) {
+        return type == Type.IDENTIFIER && text.equals(word);
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.EOF ? "end of input" : "'" + text + "'";
+    }
+}
@@ -1,47 +1,258 @@
 package utils;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class VariableStorage {
-    // A map to store variables with their names and values
-    private final Map<String, Object> variables = new HashMap<>();
+    // Type tags kept per slot
+    public static final byte UNDEFINED = 0;
+    public static final byte INT = 1;
+    public static final byte STRING = 2;
+
+    // Maps each variable name to its slot, resolved once when a statement is compiled
+    private Map<String, Integer> slots = new HashMap<>();
+
+    // Slot arrays, ints are stored unboxed and everything else as an object
+    private String[] names = new String[16];
+    private byte[] types = new byte[16];
+    private int[] intValues = new int[16];
+    private Object[] objectValues = new Object[16];
+    private int slotCount;
+
+    // Bumped whenever a variable is first declared or changes type
+    private long shapeVersion;
+    private int definedCount;
 
     // Sets a variable with a given name and value
     public void setVariable(String name, Object value) {
-        if (!isValidName(name)) {
-            throw new IllegalArgumentException("Invalid variable name: '" + name + "'");
-        }
-        variables.put(name, value);
+        set(slotOf(name), value);
     }
 
     // Gets the value of a variable by its name
     public Object getVariable(String name) {
-        if (!variables.containsKey(name)) {
+        Integer slot = slots.get(name);
+        if (slot == null || types[slot] == UNDEFINED) {
             throw new IllegalArgumentException("Variable '" + name + "' does not exist.");
         }
-        return variables.get(name);
+        return get(slot);
     }
 
     // Checks if a variable exists
     public boolean hasVariable(String name) {
-        return variables.containsKey(name);
+        Integer slot = slots.get(name);
+        return slot != null && types[slot] != UNDEFINED;
     }
 
     // Lists all the defined variables
     public void listVariables() {
-        System.out.println("Current Variables:");
-        if (variables.isEmpty()) {
-            System.out.println("No variables defined.");
-        } else {
-            for (Map.Entry<String, Object> entry : variables.entrySet()) {
-                System.out.println(entry.getKey() + " = " + entry.getValue());
+        Output output = new Output(System.out);
+        listVariables(output);
+        output.flush();
+    }
+
+    // Lists all the defined variables to the given output
+    public void listVariables(Output output) {
+        output.println("Current Variables:");
+        boolean empty = true;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (types[slot] != UNDEFINED) {
+                output.println(names[slot] + " = " + get(slot));
+                empty = false;
+            }
+        }
+        if (empty) {
+            output.println("No variables defined.");
+        }
+    }
+
+    // The slot of a name, -1 when none was reserved. Unlike slotOf it never grows the storage.
+    public int findSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // Returns the slot of a variable, reserving an undefined one the first time a name is seen
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (slotCount == names.length) {
+            int capacity = slotCount * 2;
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            intValues = Arrays.copyOf(intValues, capacity);
+            objectValues = Arrays.copyOf(objectValues, capacity);
+        }
+        names[slotCount] = name;
+        slots.put(name, slotCount);
+        return slotCount++;
+    }
+
+    // Makes room for the given number of slots at once, e.g. before loading a snapshot
+    public void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+        names = Arrays.copyOf(names, capacity);
+        types = Arrays.copyOf(types, capacity);
+        intValues = Arrays.copyOf(intValues, capacity);
+        objectValues = Arrays.copyOf(objectValues, capacity);
+        Map<String, Integer> resized = new HashMap<>(capacity * 4 / 3 + 1);
+        resized.putAll(slots);
+        slots = resized;
+    }
+
+    // True when several threads may use this storage at once, see ConcurrentVariableStorage
+    public boolean isShared() {
+        return false;
+    }
+
+    // Runs a read-modify-write of one slot, shared storages make it atomic against other writes
+    public void atomically(int slot, Runnable update) {
+        update.run();
+    }
+
+    // A private copy with the same slots and values, e.g. for one worker of a parallel loop
+    public VariableStorage localCopy() {
+        VariableStorage copy = new VariableStorage();
+        copy.slots.putAll(slots);
+        copy.names = names.clone();
+        copy.types = types.clone();
+        copy.intValues = intValues.clone();
+        copy.objectValues = objectValues.clone();
+        copy.slotCount = slotCount;
+        copy.definedCount = definedCount;
+        return copy;
+    }
+
+    // Compiled forms that depend on which variables exist and their types compare this
+    public long getShapeVersion() {
+        return shapeVersion;
+    }
+
+    // Number of defined variables, may be read from a monitoring thread
+    public int getVariableCount() {
+        return definedCount;
+    }
+
+    // Rough heap size of the slot arrays, the name map and the string values, for monitoring
+    public long estimateFootprintBytes() {
+        String[] names = this.names;
+        Object[] values = this.objectValues;
+        int count = Math.min(slotCount, Math.min(names.length, values.length));
+        // Array headers plus one name reference, type tag, int and value reference per slot
+        long bytes = 4 * 16 + (long) names.length * (4 + 1 + 4 + 4);
+        for (int slot = 0; slot < count; slot++) {
+            // A map entry with its boxed slot number, and the name string
+            bytes += 48 + stringBytes(names[slot]);
+            Object value = values[slot];
+            if (value instanceof String) {
+                bytes += stringBytes((String) value);
+            }
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String text) {
+        return text == null ? 0 : 40 + text.length();
+    }
+
+    // Number of slots handed out so far, defined or not
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public String nameOf(int slot) {
+        return names[slot];
+    }
+
+    public byte typeOf(int slot) {
+        return types[slot];
+    }
+
+    public boolean isDefined(int slot) {
+        return types[slot] != UNDEFINED;
+    }
+
+    // Reads an int slot without boxing
+    public int getInt(int slot) {
+        if (types[slot] != INT) {
+            if (types[slot] == UNDEFINED) {
+                throw new IllegalArgumentException("Invalid operand: " + names[slot]);
             }
+            throw new IllegalArgumentException("Operand '" + names[slot] + "' is not an integer.");
+        }
+        return intValues[slot];
+    }
+
+    // Writes an int slot without boxing
+    public void setInt(int slot, int value) {
+        if (types[slot] != INT) {
+            define(slot, INT);
+            objectValues[slot] = null;
         }
+        intValues[slot] = value;
     }
 
-    // Validates if the variable name follows the Java naming conventions
-    private boolean isValidName(String name) {
-        return name.matches("^[a-zA-Z_][a-zA-Z0-9_]*$");
+    // Reads any slot, ints are boxed here
+    public Object get(int slot) {
+        switch (types[slot]) {
+            case INT:
+                return intValues[slot];
+            case STRING:
+                return objectValues[slot];
+            default:
+                throw new IllegalArgumentException("Invalid operand: " + names[slot]);
+        }
+    }
+
+    // Writes any slot, Integer values are stored unboxed
+    public void set(int slot, Object value) {
+        if (value instanceof Integer) {
+            setInt(slot, (Integer) value);
+            return;
+        }
+        if (types[slot] != STRING) {
+            define(slot, STRING);
+        }
+        objectValues[slot] = value;
+    }
+
+    // Copies one slot into another, keeping ints unboxed
+    public void copy(int fromSlot, int toSlot) {
+        if (types[fromSlot] == INT) {
+            setInt(toSlot, intValues[fromSlot]);
+        } else {
+            set(toSlot, get(fromSlot));
+        }
+    }
+
+    // Changes the type tag of a slot, the name is validated when the variable is first declared
+    private void define(int slot, byte type) {
+        if (types[slot] == UNDEFINED && !isValidName(names[slot])) {
+            throw new IllegalArgumentException("Invalid variable name: '" + names[slot] + "'");
+        }
+        if (types[slot] == UNDEFINED) {
+            definedCount++;
+        }
+        types[slot] = type;
+        shapeVersion++;
+    }
+
+    // Validates if the variable name follows the Java naming conventions, [a-zA-Z_][a-zA-Z0-9_]*
+    static boolean isValidName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+            if (!letter && (i == 0 || c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
     }
 }
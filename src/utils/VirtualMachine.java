@@ -0,0 +1,305 @@
+package utils;
+
+// Runs programs produced by the BytecodeCompiler in a single dispatch loop.
+// Registers hold int temporaries, and in cached loops the variables and literals themselves;
+// elsewhere variables are read and written through their storage slots.
+public class VirtualMachine {
+    // Opcodes, operands are listed as a, b, c
+    static final int CONSTANT = 0;           // r[a] = b
+    static final int LOAD = 1;               // r[a] = int variable in slot b
+    static final int STORE = 2;              // slot a = r[b]
+    static final int STORE_CONSTANT = 3;     // slot a = constants[b]
+    static final int COPY = 4;               // slot a = slot b, any type
+    static final int MOVE = 5;               // r[a] = r[b]
+    static final int ADD = 6;                // r[a] = r[b] + r[c]
+    static final int SUBTRACT = 7;           // r[a] = r[b] - r[c]
+    static final int MULTIPLY = 8;           // r[a] = r[b] * r[c]
+    static final int DIVIDE = 9;             // r[a] = r[b] / r[c]
+    static final int REMAINDER = 10;         // r[a] = r[b] % r[c]
+    static final int NEGATE = 11;            // r[a] = -r[b]
+    static final int JUMP = 12;              // pc = a, always forwards
+    static final int IF_EQUAL = 13;          // if r[a] == r[b] then pc = c
+    static final int IF_NOT_EQUAL = 14;      // if r[a] != r[b] then pc = c
+    static final int IF_LESS = 15;           // if r[a] < r[b] then pc = c
+    static final int IF_LESS_EQUAL = 16;     // if r[a] <= r[b] then pc = c
+    static final int IF_GREATER = 17;        // if r[a] > r[b] then pc = c
+    static final int IF_GREATER_EQUAL = 18;  // if r[a] >= r[b] then pc = c
+    // The bottom of a loop: counts the iteration against the budget, then branches back like IF_*
+    static final int LOOP_EQUAL = 19;
+    static final int LOOP_NOT_EQUAL = 20;
+    static final int LOOP_LESS = 21;
+    static final int LOOP_LESS_EQUAL = 22;
+    static final int LOOP_GREATER = 23;
+    static final int LOOP_GREATER_EQUAL = 24;
+    static final int ENTER = 25;             // r[i] = int variable in slot constants[a][i], pc = c when one is not an int
+    static final int LEAVE = 26;             // slot constants[a][i] = r[i]
+    static final int PRINT = 27;             // print r[a]
+    static final int PRINT_VARIABLE = 28;    // print slot a
+    static final int PRINT_CONSTANT = 29;    // print constants[a]
+    static final int EXECUTE = 30;           // run fallbacks[a] with the tree executor
+    static final int CALL = 31;              // r[a] = function constants[b] of the c arguments r[a], r[a + 1]
+
+    private static final String[] OPCODE_NAMES = {
+            "CONSTANT", "LOAD", "STORE", "STORE_CONSTANT", "COPY", "MOVE",
+            "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "REMAINDER", "NEGATE",
+            "JUMP", "IF_EQUAL", "IF_NOT_EQUAL", "IF_LESS", "IF_LESS_EQUAL", "IF_GREATER", "IF_GREATER_EQUAL",
+            "LOOP_EQUAL", "LOOP_NOT_EQUAL", "LOOP_LESS", "LOOP_LESS_EQUAL", "LOOP_GREATER", "LOOP_GREATER_EQUAL",
+            "ENTER", "LEAVE", "PRINT", "PRINT_VARIABLE", "PRINT_CONSTANT", "EXECUTE", "CALL"
+    };
+
+    private final VariableStorage variableStorage;
+    private final Executor executor;
+    private final Output output;
+
+    // The executor runs the statements the compiler could not lower (algorithms, list, ...)
+    public VirtualMachine(VariableStorage variableStorage, Executor executor, Output output) {
+        this.variableStorage = variableStorage;
+        this.executor = executor;
+        this.output = output;
+    }
+
+    public void run(Program program) {
+        final int[] code = program.code;
+        final Object[] constants = program.constants;
+        final int[] r = new int[program.registerCount];
+        final VariableStorage storage = variableStorage;
+        final ExecutionBudget budget = executor.getBudget();
+        int pc = 0;
+        long backEdges = 0;
+        int allowance = budget.allowance();
+        int countdown = allowance;
+
+        try {
+            while (pc < code.length) {
+                int a = code[pc + 1];
+                int b = code[pc + 2];
+                int c = code[pc + 3];
+
+                switch (code[pc]) {
+                    case CONSTANT:
+                        r[a] = b;
+                        break;
+                    case LOAD:
+                        r[a] = storage.getInt(b);
+                        break;
+                    case STORE:
+                        storage.setInt(a, r[b]);
+                        break;
+                    case STORE_CONSTANT:
+                        storage.set(a, constants[b]);
+                        break;
+                    case COPY:
+                        storage.copy(b, a);
+                        break;
+                    case MOVE:
+                        r[a] = r[b];
+                        break;
+                    case ADD:
+                        r[a] = r[b] + r[c];
+                        break;
+                    case SUBTRACT:
+                        r[a] = r[b] - r[c];
+                        break;
+                    case MULTIPLY:
+                        r[a] = r[b] * r[c];
+                        break;
+                    case DIVIDE:
+                        if (r[c] == 0) {
+                            throw new ArithmeticException("Cannot divide by zero.");
+                        }
+                        r[a] = r[b] / r[c];
+                        break;
+                    case REMAINDER:
+                        if (r[c] == 0) {
+                            throw new ArithmeticException("Cannot divide by zero.");
+                        }
+                        r[a] = r[b] % r[c];
+                        break;
+                    case NEGATE:
+                        r[a] = -r[b];
+                        break;
+                    case JUMP:
+                        pc = a;
+                        continue;
+                    case IF_EQUAL:
+                        if (r[a] == r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case IF_NOT_EQUAL:
+                        if (r[a] != r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case IF_LESS:
+                        if (r[a] < r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case IF_LESS_EQUAL:
+                        if (r[a] <= r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case IF_GREATER:
+                        if (r[a] > r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case IF_GREATER_EQUAL:
+                        if (r[a] >= r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_EQUAL:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] == r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_NOT_EQUAL:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] != r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_LESS:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] < r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_LESS_EQUAL:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] <= r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_GREATER:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] > r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case LOOP_GREATER_EQUAL:
+                        backEdges++;
+                        if (--countdown == 0) {
+                            allowance = budget.poll(allowance);
+                            countdown = allowance;
+                        }
+                        if (r[a] >= r[b]) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    case ENTER: {
+                        int[] slots = (int[]) constants[a];
+                        if (!load(storage, slots, r)) {
+                            pc = c;
+                            continue;
+                        }
+                        break;
+                    }
+                    case LEAVE:
+                        store(storage, (int[]) constants[a], r);
+                        break;
+                    case PRINT:
+                        output.println(r[a]);
+                        break;
+                    case PRINT_VARIABLE:
+                        output.println(storage.get(a));
+                        break;
+                    case PRINT_CONSTANT:
+                        output.println(constants[a]);
+                        break;
+                    case EXECUTE:
+                        executor.execute(program.fallbacks[a]);
+                        break;
+                    case CALL:
+                        r[a] = ((Expression.Call.Function) constants[b]).apply(r[a], c > 1 ? r[a + 1] : 0);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[pc] + " at " + pc);
+                }
+                pc += Program.INSTRUCTION_SIZE;
+            }
+        } catch (RuntimeException e) {
+            // A cached loop that stops keeps the state it stopped in, like the tree executor
+            int[] regions = program.regions;
+            for (int i = 0; i < regions.length; i += 3) {
+                if (pc >= regions[i] && pc < regions[i + 1]) {
+                    store(storage, (int[]) constants[regions[i + 2]], r);
+                }
+            }
+            if (e instanceof ExecutionInterruptedException) {
+                throw e;
+            }
+            // Report failures inside value expressions the same way the tree executor does
+            String context = program.contexts[pc / Program.INSTRUCTION_SIZE];
+            if (context == null) {
+                throw e;
+            }
+            throw new IllegalArgumentException("Invalid expression: " + context);
+        } finally {
+            InterpreterMetrics.global().recordLoopIterations(backEdges);
+        }
+        // The iterations of the last allowance that were not polled yet
+        if (countdown != allowance) {
+            budget.poll(allowance - countdown);
+        }
+    }
+
+    // Loads the variables of a cached loop into the first registers, false when one is not an int
+    private static boolean load(VariableStorage storage, int[] slots, int[] r) {
+        for (int slot : slots) {
+            if (storage.typeOf(slot) != VariableStorage.INT) {
+                return false;
+            }
+        }
+        for (int i = 0; i < slots.length; i++) {
+            r[i] = storage.getInt(slots[i]);
+        }
+        return true;
+    }
+
+    private static void store(VariableStorage storage, int[] slots, int[] r) {
+        for (int i = 0; i < slots.length; i++) {
+            storage.setInt(slots[i], r[i]);
+        }
+    }
+
+    static String opcodeName(int opcode) {
+        return opcode >= 0 && opcode < OPCODE_NAMES.length ? OPCODE_NAMES[opcode] : "UNKNOWN(" + opcode + ")";
+    }
+}
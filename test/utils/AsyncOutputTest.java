@@ -0,0 +1,114 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncOutputTest {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private AsyncOutput output(boolean lineBuffered) {
+        return new AsyncOutput(Channels.newChannel(bytes), StandardCharsets.UTF_8, 0, lineBuffered);
+    }
+
+    private String written() {
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    // Waits up to a few seconds for the writer thread to write at least the given text
+    private boolean waitForText(String text) throws InterruptedException {
+        for (int i = 0; i < 300 && !written().contains(text); i++) {
+            Thread.sleep(10);
+        }
+        return written().contains(text);
+    }
+
+    @Test
+    void flushWritesEverythingInOrderThroughAFullRing() {
+        AsyncOutput output = output(false);
+        StringBuilder expected = new StringBuilder();
+        try {
+            // Far more than the smallest ring holds, printing has to wait for the writer
+            for (int i = -100000; i < 100000; i++) {
+                output.println(i);
+                expected.append(i).append(LINE_SEPARATOR);
+            }
+            output.println("é😀");
+            expected.append("é😀").append(LINE_SEPARATOR);
+            output.flush();
+            assertEquals(expected.toString(), written());
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    void lineBufferedOutputWritesEveryLineWithoutAFlush() throws InterruptedException {
+        AsyncOutput output = output(true);
+        try {
+            output.println("first");
+            assertTrue(waitForText("first" + LINE_SEPARATOR));
+            output.print("no line end");
+            output.println(42);
+            assertTrue(waitForText("no line end42" + LINE_SEPARATOR));
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    void printingGoesOutAfterTheDelayWhileItContinues() throws InterruptedException {
+        AsyncOutput output = output(false);
+        try {
+            output.println("first");
+            boolean seen = false;
+            for (int i = 0; i < 300 && !seen; i++) {
+                Thread.sleep(10);
+                output.print("");
+                seen = written().contains("first");
+            }
+            assertTrue(seen);
+        } finally {
+            output.close();
+        }
+    }
+
+    @Test
+    void closeWritesTheRestAndStopsTheWriterThread() {
+        long writersBefore = countWriterThreads();
+        AsyncOutput output = output(false);
+        output.println("last");
+
+        output.close();
+        output.close();
+
+        assertEquals("last" + LINE_SEPARATOR, written());
+        assertEquals(writersBefore, countWriterThreads());
+        assertThrows(IllegalStateException.class, output::flush);
+    }
+
+    @Test
+    void plainOutputStaysOpenWhenClosed() {
+        Output output = new Output(bytes);
+        output.println("text");
+        output.close();
+        output.println("more");
+        output.flush();
+
+        assertEquals("text" + LINE_SEPARATOR + "more" + LINE_SEPARATOR, written());
+    }
+
+    private static long countWriterThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("minikotlin-output") && thread.isAlive())
+                .count();
+    }
+}
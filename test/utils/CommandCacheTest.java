@@ -0,0 +1,83 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CommandCacheTest {
+    private final VariableStorage variableStorage = new VariableStorage();
+    private final Parser parser = new Parser(variableStorage);
+
+    @Test
+    void entriesAreDroppedOnceTheShapeChanges() {
+        CommandCache cache = new CommandCache();
+        Statement statement = parser.parse("print(1)");
+        cache.put("print(1)", statement, 1);
+
+        assertSame(statement, cache.get("print(1)", 1));
+        assertNull(cache.get("print(1)", 2));
+        // The stale entry is gone, not just hidden
+        assertNull(cache.get("print(1)", 1));
+    }
+
+    @Test
+    void theLeastRecentlyUsedCommandIsEvicted() {
+        CommandCache cache = new CommandCache(2);
+        cache.put("print(1)", parser.parse("print(1)"), 0);
+        cache.put("print(2)", parser.parse("print(2)"), 0);
+        cache.get("print(1)", 0);
+        cache.put("print(3)", parser.parse("print(3)"), 0);
+
+        assertNull(cache.get("print(2)", 0));
+        assertEquals("print(1)", cache.get("print(1)", 0).getSource());
+    }
+
+    @Test
+    void programsStayWithTheStatementTheyWereLoweredFrom() {
+        CommandCache cache = new CommandCache();
+        Statement first = parser.parse("print(1)");
+        Program program = new BytecodeCompiler().compile(first);
+        cache.put("print(1)", first, 0);
+        cache.putProgram("print(1)", first, program);
+        assertSame(program, cache.getProgram("print(1)", first));
+
+        Statement second = parser.parse("print(1)");
+        cache.put("print(1)", second, 0);
+        assertNull(cache.getProgram("print(1)", second));
+        cache.putProgram("print(1)", first, program);
+        assertNull(cache.getProgram("print(1)", second));
+    }
+
+    // A cached command must behave like a freshly parsed one after a variable changed its type
+    @Test
+    void readerReparsesCommandsAfterATypeChange() {
+        for (boolean virtualMachine : new boolean[]{false, true}) {
+            String cached = runAll(virtualMachine, "var x = 1", "print(x + 1)", "var x = \"a\"", "print(x + 1)");
+            String fresh = runAll(virtualMachine, "var x = 1", "var x = \"a\"", "print(x + 1)");
+            String[] lines = cached.split(System.lineSeparator());
+            assertEquals("2", lines[0]);
+            assertEquals(fresh, lines[1] + System.lineSeparator());
+        }
+    }
+
+    private static String runAll(boolean virtualMachine, String... commands) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Output output = new Output(bytes);
+        Reader reader = new Reader(new VariableStorage(), output);
+        reader.setUseVirtualMachine(virtualMachine);
+        for (String command : commands) {
+            try {
+                reader.execute(command);
+            } catch (RuntimeException e) {
+                output.println("Error: " + e.getMessage());
+            }
+        }
+        output.flush();
+        return bytes.toString(Charset.defaultCharset());
+    }
+}
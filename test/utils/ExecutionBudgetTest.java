@@ -0,0 +1,120 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExecutionBudgetTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Output output = new Output(bytes);
+
+    private Reader reader(String engine, long maxSteps) {
+        Reader reader = new Reader(new VariableStorage(), output);
+        reader.setJitEnabled(!engine.equals("tree"));
+        reader.setUseVirtualMachine(engine.equals("vm"));
+        reader.setMaxSteps(maxSteps);
+        return reader;
+    }
+
+    private String printed(Reader reader, String command) {
+        reader.execute(command);
+        output.flush();
+        String text = bytes.toString(Charset.defaultCharset()).trim();
+        bytes.reset();
+        return text;
+    }
+
+    @Test
+    void budgetStartsOverForEveryCommand() {
+        for (String engine : new String[]{"tree", "jit", "vm"}) {
+            Reader reader = reader(engine, 1000);
+            for (int i = 0; i < 16; i++) {
+                reader.execute("var v" + i + " = 0");
+                reader.execute("while(v" + i + " < 300){ v" + i + " = v" + i + " + 1; }");
+                assertEquals("300", printed(reader, "print(v" + i + ")"), engine);
+            }
+        }
+    }
+
+    @Test
+    void commandStopsOnTheFirstIterationOverASmallLimit() {
+        for (String engine : new String[]{"tree", "jit", "vm"}) {
+            Reader reader = reader(engine, 1000);
+            reader.execute("var i = 0");
+            ExecutionInterruptedException e = assertThrows(ExecutionInterruptedException.class,
+                    () -> reader.execute("while(i < 2000){ i = i + 1; }"), engine);
+            assertEquals("Command stopped, it exceeded its limit of 1000 loop iterations.", e.getMessage());
+            assertEquals("1001", printed(reader, "print(i)"), engine);
+        }
+    }
+
+    @Test
+    void compiledLoopsAreChargedTheIterationsTheyRan() {
+        // Past the JIT threshold the loop finishes in compiled code
+        int limit = 3 * JitCompiler.DEFAULT_THRESHOLD;
+        Reader reader = reader("jit", limit);
+        for (int i = 0; i < 4; i++) {
+            reader.execute("var v" + i + " = 0");
+            reader.execute("while(v" + i + " < " + (limit - 1) + "){ v" + i + " = v" + i + " + 1; }");
+        }
+        reader.execute("var i = 0");
+        assertThrows(ExecutionInterruptedException.class, () -> reader.execute("while(i < " + 2 * limit + "){ i = i + 1; }"));
+        assertEquals(String.valueOf(limit + 1), printed(reader, "print(i)"));
+    }
+
+    @Test
+    void closedFormLoopsCountTheirIterations() {
+        Reader reader = reader("tree", 1000);
+        reader.setOptimizationLevel(1);
+        for (int i = 0; i < 4; i++) {
+            reader.execute("var v" + i + " = 0");
+            reader.execute("while(v" + i + " < 600){ v" + i + " = v" + i + " + 1; }");
+            assertEquals("600", printed(reader, "print(v" + i + ")"));
+        }
+        reader.execute("var j = 0");
+        ExecutionInterruptedException e = assertThrows(ExecutionInterruptedException.class,
+                () -> reader.execute("while(j < 100000000){ j = j + 1; }"));
+        assertEquals("Command stopped, it exceeded its limit of 1000 loop iterations.", e.getMessage());
+        assertEquals("1001", printed(reader, "print(j)"));
+    }
+
+    @Test
+    void timeoutStopsAnEndlessLoop() {
+        for (String engine : new String[]{"tree", "jit", "vm"}) {
+            Reader reader = reader(engine, 0);
+            reader.setTimeoutMillis(50);
+            reader.execute("var i = 0");
+            ExecutionInterruptedException e = assertThrows(ExecutionInterruptedException.class,
+                    () -> reader.execute("while(i >= 0){ i = i + 1; i = i - 1; }"), engine);
+            assertEquals("Command stopped after 50 ms.", e.getMessage());
+        }
+    }
+
+    @Test
+    void cancelStopsTheRunningCommandOnly() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (String engine : new String[]{"tree", "jit", "vm"}) {
+                Reader reader = reader(engine, 0);
+                assertTrue(!reader.cancel(), "nothing runs at the prompt");
+                reader.execute("var i = 0");
+                scheduler.schedule(reader::cancel, 50, TimeUnit.MILLISECONDS);
+                ExecutionInterruptedException e = assertThrows(ExecutionInterruptedException.class,
+                        () -> reader.execute("while(i >= 0){ i = i + 1; i = i - 1; }"), engine);
+                assertEquals("Command cancelled.", e.getMessage());
+                assertEquals("0", printed(reader, "print(i)"), engine);
+            }
+        } finally {
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+    @TempDir
+    Path directory;
+
+    private static void setInt(VariableStorage storage, String name, int value) {
+        storage.setInt(storage.slotOf(name), value);
+    }
+
+    private static Object valueOf(VariableStorage storage, String name) {
+        return storage.get(storage.slotOf(name));
+    }
+
+    @Test
+    void committedVariablesAreReplayedWithTheirLastValues() throws IOException {
+        Path file = directory.resolve("vars.journal");
+        JournaledVariableStorage storage = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, storage)) {
+            setInt(storage, "x", 1);
+            storage.set(storage.slotOf("s"), "one");
+            journal.commit();
+            setInt(storage, "x", 2);
+            journal.commit();
+            journal.sync();
+        }
+
+        JournaledVariableStorage recovered = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, recovered)) {
+            assertEquals(2, journal.getRecoveredCount());
+        }
+        assertEquals(2, valueOf(recovered, "x"));
+        assertEquals("one", valueOf(recovered, "s"));
+    }
+
+    @Test
+    void aTornBatchIsCutOffAndAppendingContinuesAfterTheLastGoodOne() throws IOException {
+        Path file = directory.resolve("vars.journal");
+        JournaledVariableStorage storage = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, storage)) {
+            setInt(storage, "a", 1);
+            journal.commit();
+            journal.sync();
+            setInt(storage, "b", 2);
+            journal.commit();
+            journal.sync();
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        // The crash hit in the middle of writing the second batch
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        JournaledVariableStorage recovered = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, recovered)) {
+            assertEquals(1, journal.getRecoveredCount());
+            assertTrue(Files.size(file) < bytes.length - 3);
+            setInt(recovered, "c", 3);
+            journal.commit();
+        }
+
+        JournaledVariableStorage reopened = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, reopened)) {
+            assertEquals(2, journal.getRecoveredCount());
+        }
+        assertEquals(1, valueOf(reopened, "a"));
+        assertEquals(3, valueOf(reopened, "c"));
+    }
+
+    @Test
+    void aBatchWithAnInvalidNameIsDroppedAsAWhole() throws IOException {
+        Path file = directory.resolve("vars.journal");
+        JournaledVariableStorage storage = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, storage)) {
+            setInt(storage, "a", 1);
+            journal.commit();
+        }
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        Snapshot.writeEntry(out, "fine", 1);
+        Snapshot.writeEntry(out, "not valid", 2);
+        byte[] batch = entries.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(batch);
+        ByteBuffer framed = ByteBuffer.allocate(8 + batch.length).putInt(batch.length).putInt((int) crc.getValue()).put(batch);
+        Files.write(file, framed.array(), StandardOpenOption.APPEND);
+
+        JournaledVariableStorage recovered = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, recovered)) {
+            assertEquals(1, journal.getRecoveredCount());
+        }
+        assertEquals(1, recovered.getSlotCount());
+    }
+
+    @Test
+    void aJournalOfMostlyOldValuesIsCompacted() throws IOException {
+        Path file = directory.resolve("vars.journal");
+        JournaledVariableStorage storage = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, storage)) {
+            setInt(storage, "keep", 7);
+            for (int i = 0; i < 3000; i++) {
+                setInt(storage, "counter", i);
+                journal.commit();
+            }
+        }
+        long grown = Files.size(file);
+
+        JournaledVariableStorage recovered = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, recovered)) {
+            assertEquals(2, journal.getRecoveredCount());
+        }
+        long compacted = Files.size(file);
+        assertTrue(compacted < grown / 100, grown + " -> " + compacted);
+        assertEquals(2999, valueOf(recovered, "counter"));
+        assertEquals(7, valueOf(recovered, "keep"));
+
+        JournaledVariableStorage reopened = new JournaledVariableStorage();
+        try (Journal journal = Journal.open(file, reopened)) {
+            assertEquals(2, journal.getRecoveredCount());
+        }
+        assertEquals(2999, valueOf(reopened, "counter"));
+        assertEquals(Files.size(file), compacted);
+    }
+}
@@ -0,0 +1,72 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelLoopTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Output output = new Output(bytes);
+    private final Reader reader = new Reader(new VariableStorage(), output);
+
+    private String[] run(String... commands) {
+        for (String command : commands) {
+            reader.execute(command);
+        }
+        output.flush();
+        String text = bytes.toString(Charset.defaultCharset());
+        bytes.reset();
+        return text.split(System.lineSeparator());
+    }
+
+    // 200000 iterations are split into several chunks even on a single core
+    @Test
+    void reductionsMergeAcrossChunksLikeTheSequentialLoop() {
+        String[] parallel = run(
+                "var s = 0", "var c = 0", "var lo = 2147483647", "var hi = -2147483648",
+                "parallel for(k in -100000..99999) reduce(sum s, count c, min lo, max hi){ var v = (k * 7919) % 100003; s = s + v * v; if(v % 3 == 0){ c = c + 1 }; lo = min(lo, v); hi = max(hi, v) }",
+                "print(s)", "print(c)", "print(lo)", "print(hi)");
+        String[] sequential = run(
+                "var t = 0", "var d = 0", "var m = 2147483647", "var n = -2147483648", "var k = -100000",
+                "while(k < 100000){ var w = (k * 7919) % 100003; t = t + w * w; if(w % 3 == 0){ d = d + 1 }; m = min(m, w); n = max(n, w); k = k + 1 }",
+                "print(t)", "print(d)", "print(m)", "print(n)");
+
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test
+    void reductionsCombineWithTheValuesBeforeTheLoop() {
+        String[] printed = run("var s = 10", "var m = -5",
+                "parallel for(i in 1..1000) reduce(sum s, min m){ s = s + i; m = min(m, i) }",
+                "print(s)", "print(m)");
+
+        assertArrayEquals(new String[]{"500510", "-5"}, printed);
+    }
+
+    @Test
+    void anEmptyRangeLeavesTheReductionsAlone() {
+        assertArrayEquals(new String[]{"7"}, run("var s = 7", "parallel for(i in 5..1) reduce(sum s){ s = s + i }", "print(s)"));
+    }
+
+    @Test
+    void writingASharedVariableIsRejected() {
+        run("var s = 0", "var x = 0");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> reader.execute("parallel for(i in 1..10) reduce(sum s){ x = i; s = s + i }"));
+        assertTrue(e.getMessage().startsWith("Invalid parallel loop: "), e.getMessage());
+    }
+
+    @Test
+    void readingAReductionVariableIsRejected() {
+        run("var s = 0", "var y = 0");
+        assertThrows(IllegalArgumentException.class,
+                () -> reader.execute("parallel for(i in 1..10) reduce(sum s){ var z = s; s = s + i }"));
+        assertEquals("0", run("print(s)")[0]);
+    }
+}
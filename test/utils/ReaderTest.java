@@ -0,0 +1,116 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReaderTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Output output = new Output(bytes);
+
+    // Runs the commands like a script and returns what they printed, one entry per line
+    private String[] run(Reader reader, String... commands) {
+        for (String command : commands) {
+            try {
+                reader.execute(command);
+            } catch (RuntimeException e) {
+                output.println("Error: " + e.getMessage());
+            }
+        }
+        output.flush();
+        String text = bytes.toString(Charset.defaultCharset());
+        bytes.reset();
+        return text.isEmpty() ? new String[0] : text.split(System.lineSeparator());
+    }
+
+    @Test
+    void bigResultsAreCachedAsTheirDigits() {
+        Reader reader = new Reader(new VariableStorage(), output);
+        ResultCache cache = ResultCache.create("lru", 16);
+        reader.setResultCache(cache);
+
+        String[] printed = run(reader, "factorial(25)", "factorial(25)");
+
+        assertEquals("15511210043330985984000000", printed[0]);
+        assertEquals(printed[0], printed[1]);
+        assertEquals(printed[0], cache.lookup("factorial(25)"));
+    }
+
+    @Test
+    void resultsLongerThanTheLimitAreNotCached() {
+        Reader reader = new Reader(new VariableStorage(), output);
+        ResultCache cache = ResultCache.create("lru", 16);
+        reader.setResultCache(cache);
+
+        String[] printed = run(reader, "factorial(20000)");
+
+        assertTrue(printed[0].length() > 65536);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void sharedStorageIsNeverOptimized() {
+        Reader reader = new Reader(new ConcurrentVariableStorage(), output);
+        reader.setOptimizationLevel(1);
+        reader.setTrace(true);
+
+        String[] printed = run(reader, "var j = 0", "while(j < 1000){ j = j + 1; }", "print(j)");
+
+        assertFalse(Arrays.stream(printed).anyMatch(line -> line.startsWith("Optimizer:")), String.join("|", printed));
+        assertEquals("1000", printed[printed.length - 1]);
+    }
+
+    @Test
+    void commandsAreOptimizedOnceAndRewritesAreTraceOutput() {
+        Reader reader = new Reader(new VariableStorage(), output);
+        reader.setOptimizationLevel(1);
+        String loop = "while(i < 5){ i = i + 1; }";
+
+        String[] printed = run(reader, "var i = 0", loop, "print(i)", "var i = 0", loop, "print(i)");
+        assertArrayEquals(new String[]{"5", "5"}, printed);
+
+        reader.setTrace(true);
+        printed = run(reader, "var i = 0", loop);
+        assertTrue(Arrays.asList(printed).contains("Optimizer: closed form for while(i < 5)"), String.join("|", printed));
+    }
+
+    @Test
+    void profileCountsCompilingACommandOnceAsParseTime() {
+        Reader reader = new Reader(new VariableStorage(), output);
+        reader.setOptimizationLevel(1);
+        String loop = "profile while(i < 100){ s = s + i * 2; i = i + 1; }";
+
+        String[] first = run(reader, "var i = 0", "var s = 0", loop);
+        String[] second = run(reader, "var i = 0", loop);
+
+        assertTrue(first[0].startsWith("Profile: parse 1 calls"), first[0]);
+        assertTrue(second[0].startsWith("Profile: parse 0 calls"), second[0]);
+    }
+
+    @Test
+    void namesThatAreOnlyReadDoNotReserveSlots() {
+        for (String engine : new String[]{"tree", "jit", "vm"}) {
+            VariableStorage storage = new VariableStorage();
+            Reader reader = new Reader(storage, output);
+            reader.setJitEnabled(!engine.equals("tree"));
+            reader.setUseVirtualMachine(engine.equals("vm"));
+            run(reader, "var i = 0");
+            int slots = storage.getSlotCount();
+
+            String[] printed = run(reader, "print(x1)", "print(x2 + 1)", "while(i < y){ i = i + 1; }", "print(x1)");
+            assertArrayEquals(new String[]{"Error: Invalid expression: x1", "Error: Invalid expression: x2 + 1",
+                    "Error: Invalid operand: y", "Error: Invalid expression: x1"}, printed, engine);
+            assertEquals(slots, storage.getSlotCount(), engine);
+
+            printed = run(reader, "var x1 = 3", "print(x1)", "while(i < 2){ t = i; i = i + 1; print(t); }", "print(i + t)");
+            assertArrayEquals(new String[]{"3", "0", "1", "3"}, printed, engine);
+        }
+    }
+}
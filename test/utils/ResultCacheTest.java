@@ -0,0 +1,108 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCacheTest {
+    // The Reader asks before it stores, so every put follows a missed get
+    private static void request(ResultCache cache, String key) {
+        if (cache.get(key) == null) {
+            cache.put(key, key.length());
+        }
+    }
+
+    @Test
+    void lruEvictsTheLeastRecentlyUsedEntry() {
+        ResultCache cache = ResultCache.create("lru", 2);
+        request(cache, "a");
+        request(cache, "b");
+        cache.get("a");
+        request(cache, "c");
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void scanFlushesLruButNotTinyLfu() {
+        ResultCache lru = ResultCache.create("lru", 100);
+        ResultCache tinyLfu = ResultCache.create("tinylfu", 100);
+        for (ResultCache cache : new ResultCache[]{lru, tinyLfu}) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 50; i++) {
+                    request(cache, "hot" + i);
+                }
+            }
+            for (int i = 0; i < 1000; i++) {
+                request(cache, "scan" + i);
+            }
+        }
+
+        int lruHot = 0;
+        int tinyLfuHot = 0;
+        for (int i = 0; i < 50; i++) {
+            lruHot += lru.lookup("hot" + i) != null ? 1 : 0;
+            tinyLfuHot += tinyLfu.lookup("hot" + i) != null ? 1 : 0;
+        }
+        assertEquals(0, lruHot);
+        assertEquals(50, tinyLfuHot);
+        assertTrue(tinyLfu.size() <= 100);
+    }
+
+    @Test
+    void tinyLfuAdmitsAnEntryMoreFrequentThanItsVictim() {
+        ResultCache cache = ResultCache.create("tinylfu", 100);
+        for (int i = 0; i < 100; i++) {
+            request(cache, "cold" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            cache.get("popular");
+        }
+        cache.put("popular", 1);
+        // Pushes popular out of the one entry window, it has to beat a cold entry to stay
+        request(cache, "next");
+
+        assertNotNull(cache.get("popular"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void tinyLfuRejectsAnEntryNoMoreFrequentThanItsVictim() {
+        ResultCache cache = ResultCache.create("tinylfu", 100);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                request(cache, "warm" + i);
+            }
+        }
+        request(cache, "once");
+        request(cache, "next");
+
+        assertNull(cache.lookup("once"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void statsCountHitsMissesAndEvictions() {
+        ResultCache cache = ResultCache.create("lru", 1);
+        request(cache, "a");
+        request(cache, "a");
+        request(cache, "b");
+
+        String stats = cache.stats();
+        assertTrue(stats.startsWith("Algorithm cache (LRU, 1/1 entries): 1 hits, 2 misses, hit rate "), stats);
+        assertTrue(stats.endsWith("%, 1 evictions"), stats);
+    }
+
+    @Test
+    void createRejectsUnknownPoliciesAndEmptyCaches() {
+        assertThrows(IllegalArgumentException.class, () -> ResultCache.create("fifo", 10));
+        assertThrows(IllegalArgumentException.class, () -> ResultCache.create("lru", 0));
+    }
+}
@@ -0,0 +1,104 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotTest {
+    @TempDir
+    Path directory;
+
+    private static void define(VariableStorage storage, String name, Object value) {
+        int slot = storage.slotOf(name);
+        if (value instanceof Integer) {
+            storage.setInt(slot, (Integer) value);
+        } else {
+            storage.set(slot, value);
+        }
+    }
+
+    @Test
+    void savedVariablesLoadBackWithTheirTypes() throws IOException {
+        VariableStorage saved = new VariableStorage();
+        define(saved, "zero", 0);
+        define(saved, "low", Integer.MIN_VALUE);
+        define(saved, "high", Integer.MAX_VALUE);
+        define(saved, "text", "café ✓ 𝄞");
+        define(saved, "empty", "");
+        define(saved, "_under_score9", -42);
+        Path file = directory.resolve("vars.snap");
+
+        assertEquals(6, Snapshot.save(saved, file));
+
+        VariableStorage loaded = new VariableStorage();
+        define(loaded, "zero", "replaced");
+        define(loaded, "other", 5);
+        assertEquals(6, Snapshot.load(loaded, file));
+
+        assertEquals(7, loaded.getVariableCount());
+        assertEquals(0, loaded.get(loaded.slotOf("zero")));
+        assertEquals(Integer.MIN_VALUE, loaded.getInt(loaded.slotOf("low")));
+        assertEquals(Integer.MAX_VALUE, loaded.getInt(loaded.slotOf("high")));
+        assertEquals("café ✓ 𝄞", loaded.get(loaded.slotOf("text")));
+        assertEquals("", loaded.get(loaded.slotOf("empty")));
+        assertEquals(-42, loaded.get(loaded.slotOf("_under_score9")));
+        assertEquals(5, loaded.get(loaded.slotOf("other")));
+        assertFalse(Files.exists(directory.resolve("vars.snap.tmp")));
+    }
+
+    @Test
+    void aTruncatedSnapshotChangesNothing() throws IOException {
+        VariableStorage saved = new VariableStorage();
+        define(saved, "a", 1);
+        define(saved, "b", "two");
+        Path file = directory.resolve("vars.snap");
+        Snapshot.save(saved, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        VariableStorage loaded = new VariableStorage();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Snapshot.load(loaded, file));
+        assertTrue(e.getMessage().contains("is damaged"), e.getMessage());
+        assertEquals(0, loaded.getVariableCount());
+        assertEquals(0, loaded.getSlotCount());
+    }
+
+    @Test
+    void namesTheLanguageCannotUseAreRejected() throws IOException {
+        for (String name : new String[]{"1st", "has space", "café", "a-b"}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(Snapshot.MAGIC);
+            out.writeInt(2);
+            Snapshot.writeEntry(out, "ok", 1);
+            Snapshot.writeEntry(out, name, 2);
+            Path file = directory.resolve("crafted.snap");
+            Files.write(file, bytes.toByteArray());
+
+            VariableStorage loaded = new VariableStorage();
+            assertThrows(IllegalArgumentException.class, () -> Snapshot.load(loaded, file), name);
+            assertEquals(0, loaded.getVariableCount(), name);
+        }
+    }
+
+    @Test
+    void otherFilesAreNotSnapshots() throws IOException {
+        Path file = directory.resolve("notes.txt");
+        Files.writeString(file, "hello world");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> Snapshot.load(new VariableStorage(), file));
+        assertTrue(e.getMessage().contains("is not a MiniKotlin snapshot"), e.getMessage());
+    }
+}
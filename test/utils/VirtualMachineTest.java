@@ -0,0 +1,84 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VirtualMachineTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Output output = new Output(bytes);
+
+    // Runs the commands like a script on one engine and returns what they printed
+    private String[] run(boolean useVirtualMachine, String... commands) {
+        Reader reader = new Reader(new VariableStorage(), output);
+        reader.setJitEnabled(false);
+        reader.setUseVirtualMachine(useVirtualMachine);
+        for (String command : commands) {
+            try {
+                reader.execute(command);
+            } catch (RuntimeException e) {
+                output.println("Error: " + e.getMessage());
+            }
+        }
+        output.flush();
+        String text = bytes.toString(Charset.defaultCharset());
+        bytes.reset();
+        return text.split(System.lineSeparator());
+    }
+
+    private void assertSameAsTree(String... commands) {
+        assertArrayEquals(run(false, commands), run(true, commands));
+    }
+
+    @Test
+    void cachedLoopsMatchTheTreeExecutor() {
+        assertSameAsTree(
+                "var i = 0", "var s = 0",
+                "while(i < 1000){ s = s + i % 7; i = i + 1; }",
+                "print(s)", "print(i)",
+                "var a = 0", "var b = 0",
+                "while(a < 4){ b = 0; while(b < a){ b = b + 1; if(b == 2){ print(b); } else { print(-b); }; }; a = a + 1; }",
+                "var g = 0", "var h = 0",
+                "while(g < 5){ h = h + max(g, 2) + gcd(g, 4); print(\"step\"); g = g + 1; }",
+                "print(h)",
+                "var z = 5",
+                "while(z < 3){ z = z + 1; }",
+                "print(z)");
+    }
+
+    @Test
+    void loopsOverOtherTypesRunUncached() {
+        assertSameAsTree(
+                "var i = 0",
+                "while(i < 3){ t = i * 2; i = i + 1; }",
+                "print(t)",
+                "var w = \"text\"", "var n = 0",
+                "while(n < 2){ print(w); n = n + 1; }",
+                "var s = \"a\"", "var c = 0",
+                "while(c < 2){ s = c; c = c + 1; }",
+                "print(s)");
+    }
+
+    @Test
+    void failingLoopKeepsTheStateItStoppedIn() {
+        String[] printed = run(true,
+                "var j = 0", "var k = 5",
+                "while(j < 10){ k = 10 / (3 - j); j = j + 1; }",
+                "print(j)", "print(k)");
+
+        assertArrayEquals(new String[]{"Error: Invalid expression: 10 / (3 - j)", "3", "10"}, printed);
+    }
+
+    @Test
+    void compiledLoopIsRotatedAndKeepsVariablesInRegisters() {
+        Parser parser = new Parser(new VariableStorage());
+        Program program = new BytecodeCompiler().compile(parser.parse("while(i < 10){ i = i + 1; }"));
+        String listing = program.disassemble();
+
+        assertTrue(listing.contains("ENTER") && listing.contains("LEAVE") && listing.contains("LOOP_LESS"), listing);
+    }
+}